@@ -0,0 +1,156 @@
+package eecs547.tac.aa.bench;
+
+import eecs547.tac.aa.BidParameters;
+import eecs547.tac.aa.v4.BidModel;
+import eecs547.tac.aa.v4.BidOptimizer;
+import eecs547.tac.aa.v4.GameModel;
+import eecs547.tac.aa.v4.TigerBloodV4;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the current agent's daily work on the models of a game played up
+ * to a given day with a given catalog size. Most of these calls step the
+ * models, so the game is played again before every iteration; within an
+ * iteration the histories grow by one entry per call, as if the day kept
+ * repeating.
+ *
+ * @author Augie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentBenchmark {
+
+    @State(Scope.Thread)
+    public static class Game {
+
+        @Param({"2x2", "3x3", "4x4"})
+        public String catalog;
+        @Param({"5", "30", "59"})
+        public int days;
+        GameFixture fixture;
+        BenchAgent agent;
+        BidModel bM;
+        GameModel gM;
+        BidOptimizer bidder;
+        int query;
+        int day;
+
+        BenchAgent newAgent() {
+            return new BenchAgent();
+        }
+
+        @Setup(Level.Trial)
+        public void silence() {
+            GameFixture.silence();
+        }
+
+        @Setup(Level.Iteration)
+        public void play() throws Exception {
+            fixture = new GameFixture(catalog, days, newAgent());
+            agent = fixture.getAgent();
+            bM = agent.getBidModel();
+            gM = agent.getGameModel();
+            // the specialty's bid is set, moves and is never left out
+            query = agent.getQueryIndex().getSpecializationIndex();
+            bidder = bM.getBidder(query);
+            day = fixture.getSimulator().getDay();
+            agent.decode(fixture.getQueryReport());
+        }
+
+        @TearDown(Level.Iteration)
+        public void finish() {
+            fixture.finish();
+        }
+
+        @TearDown(Level.Trial)
+        public void restore() {
+            GameFixture.restore();
+        }
+    }
+
+    /**
+     * A game in which every bid update sets the spend limits through the
+     * capacity allocation, as the first update of a day does once enough of
+     * the capacity is in use.
+     */
+    @State(Scope.Thread)
+    public static class CapacityGame extends Game {
+
+        @Override
+        BenchAgent newAgent() {
+            // set the limits however little has been sold, so every fixture allocates
+            return new BenchAgent(TigerBloodV4.DEFAULT_PARAMETERS.with(BidParameters.BID_LIMITS_THRESHOLD, 0d));
+        }
+
+        /**
+         * Makes the next update the first of an early day again.
+         */
+        @Setup(Level.Invocation)
+        public void rearm() {
+            bM.restartDay();
+        }
+    }
+
+    @Benchmark
+    public double bidOptimizerUpdateBid(Game g) {
+        g.bidder.updateBid();
+        return g.bidder.getBid();
+    }
+
+    /**
+     * One query's update once the day's spend limits are set.
+     */
+    @Benchmark
+    public double bidModelUpdateBid(Game g) {
+        g.bM.updateBid(g.query);
+        return g.bidder.getBid();
+    }
+
+    /**
+     * The day's first update, which also ranks the queries for the capacity left.
+     */
+    @Benchmark
+    public double bidModelUpdateBidAllocatingCapacity(CapacityGame g) {
+        g.bM.updateBid(0);
+        return g.bidder.getSpendLimit();
+    }
+
+    @Benchmark
+    public int bidModelGetUsedCapacity(Game g) {
+        return g.bM.getUsedCapacity();
+    }
+
+    @Benchmark
+    public void gameModelHandleQueryReport(Game g) {
+        g.gM.handleQueryReport(g.agent.getDayFrame());
+    }
+
+    @Benchmark
+    public int userModelPredictTotalImpressions(Game g) {
+        return g.gM.uM.predictTotalImpressions();
+    }
+
+    /**
+     * Everything from the simulation status to the bundle being sent.
+     */
+    @Benchmark
+    public void sendBidAndAds(Game g) {
+        g.agent.simulationStatus(g.day);
+    }
+}
@@ -0,0 +1,56 @@
+package eecs547.tac.aa.bench;
+
+import eecs547.tac.aa.BidParameters;
+import eecs547.tac.aa.DayFrame;
+import eecs547.tac.aa.QueryIndex;
+import eecs547.tac.aa.v4.BidModel;
+import eecs547.tac.aa.v4.GameModel;
+import eecs547.tac.aa.v4.TigerBloodV4;
+import edu.umich.eecs.tac.props.QueryReport;
+import se.sics.tasim.props.SimulationStatus;
+
+/**
+ * The current agent with its models opened up, so a benchmark can play it
+ * into a game and then call into the middle of its day.
+ *
+ * @author Augie
+ */
+public class BenchAgent extends TigerBloodV4 {
+
+    public BenchAgent() {
+    }
+
+    public BenchAgent(BidParameters parameters) {
+        super(parameters);
+    }
+
+    public BidModel getBidModel() {
+        return bM;
+    }
+
+    public GameModel getGameModel() {
+        return gM;
+    }
+
+    public QueryIndex getQueryIndex() {
+        return queryIndex;
+    }
+
+    public DayFrame getDayFrame() {
+        return dayFrame;
+    }
+
+    /**
+     * Loads a query report into the day frame without handing it to the models.
+     */
+    public void decode(QueryReport queryReport) {
+        dayFrame.decode(queryReport);
+    }
+
+    /**
+     * Asks for the day's bids as the server's simulation status does.
+     */
+    public void simulationStatus(int day) {
+        handleSimulationStatus(new SimulationStatus(day, 0));
+    }
+}
@@ -0,0 +1,129 @@
+package eecs547.tac.aa.bench;
+
+import eecs547.tac.aa.sim.MarketSimulator;
+import edu.umich.eecs.tac.props.QueryReport;
+import edu.umich.eecs.tac.props.RetailCatalog;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import se.sics.tasim.aw.Agent;
+
+/**
+ * A {@link BenchAgent} played part way into a {@link MarketSimulator} game
+ * against the earlier versions, so its models hold what they would hold on
+ * that day of a real game. The game, the catalog and so the reports are
+ * fixed by the seed; only the agents' own randomness and timing vary. The
+ * agents' graphs are off, as in every simulator game.
+ * <p>
+ * Catalog sizes are written manufacturers x components, e.g. "3x3" for the
+ * standard catalog. Larger catalogs add made up names after the standard
+ * ones.
+ *
+ * @author Augie
+ */
+public class GameFixture {
+
+    public static final long SEED = 547L;
+    public static final int ADVERTISERS = 8;
+    private static final String[] MANUFACTURERS = {"flat", "lioneer", "pg", "sonic", "vista", "zenic"};
+    private static final String[] COMPONENTS = {"tv", "dvd", "audio", "radio", "phone", "camera"};
+    /**
+     * The other seats, in order.
+     */
+    private static final String[] OPPONENTS = {
+        "eecs547.tac.aa.naive.NaiveTigerBlood",
+        "eecs547.tac.aa.v1.TigerBloodV1",
+        "eecs547.tac.aa.v2.TigerBloodV2",
+        "eecs547.tac.aa.v3.TigerBloodV3",
+        "eecs547.tac.aa.v4.TigerBloodV4",
+        "eecs547.tac.aa.v5.TigerBloodV4"
+    };
+    private static PrintStream out;
+    private final BenchAgent agent;
+    private final MarketSimulator simulator;
+
+    /**
+     * Plays the given days of a full length game.
+     * @param catalog the catalog size, e.g. "3x3"
+     * @param days days to play, less than the length of the game
+     * @param agent the agent in the first seat
+     */
+    public GameFixture(String catalog, int days, BenchAgent agent) throws Exception {
+        if (days < 1 || days >= MarketSimulator.DEFAULT_DAYS) {
+            throw new IllegalArgumentException("days must be from 1 to " + (MarketSimulator.DEFAULT_DAYS - 1) + ": " + days);
+        }
+        this.agent = agent;
+        simulator = new MarketSimulator(SEED);
+        simulator.setRetailCatalog(createRetailCatalog(catalog, SEED));
+        simulator.addAdvertiser("adv1", agent);
+        for (int s = 1; s < ADVERTISERS; s++) {
+            simulator.addAdvertiser("adv" + (s + 1), (Agent) Class.forName(OPPONENTS[(s - 1) % OPPONENTS.length]).getDeclaredConstructor().newInstance());
+        }
+        simulator.start();
+        for (int d = 0; d < days; d++) {
+            simulator.step();
+        }
+    }
+
+    /**
+     * @param size manufacturers x components, e.g. "3x3"
+     */
+    public static RetailCatalog createRetailCatalog(String size, long seed) {
+        int x = size.indexOf('x');
+        if (x < 0) {
+            throw new IllegalArgumentException("catalog size must be like 3x3: " + size);
+        }
+        int manufacturers = Integer.parseInt(size.substring(0, x)), components = Integer.parseInt(size.substring(x + 1));
+        if (manufacturers < 1 || manufacturers > MANUFACTURERS.length || components < 1 || components > COMPONENTS.length) {
+            throw new IllegalArgumentException("catalog size must be from 1x1 to " + MANUFACTURERS.length + "x" + COMPONENTS.length + ": " + size);
+        }
+        return MarketSimulator.createRetailCatalog(Arrays.copyOf(MANUFACTURERS, manufacturers), Arrays.copyOf(COMPONENTS, components), seed);
+    }
+
+    public BenchAgent getAgent() {
+        return agent;
+    }
+
+    public MarketSimulator getSimulator() {
+        return simulator;
+    }
+
+    /**
+     * @return the agent's report on the last day played, which it has not been sent yet
+     */
+    public QueryReport getQueryReport() {
+        return simulator.getQueryReport(0);
+    }
+
+    /**
+     * Ends the game, stopping the agents' threads.
+     */
+    public void finish() {
+        simulator.finish();
+    }
+
+    /**
+     * Drops everything written to standard out, where the agents log every
+     * day, until {@link #restore()}.
+     */
+    public static synchronized void silence() {
+        if (out == null) {
+            out = System.out;
+            System.setOut(new PrintStream(new OutputStream() {
+
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+    }
+
+    public static synchronized void restore() {
+        if (out != null) {
+            System.setOut(out);
+            out = null;
+        }
+    }
+}
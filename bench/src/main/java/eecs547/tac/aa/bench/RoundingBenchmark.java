@@ -0,0 +1,111 @@
+package eecs547.tac.aa.bench;
+
+import eecs547.tac.aa.Util;
+import java.text.DecimalFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of {@link Util#round3(double)} with the DecimalFormat
+ * round trip it replaced, after checking that the two agree.
+ *
+ * @author Augie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundingBenchmark {
+
+    private static final int VALUES = 1 << 20, BATCH = 1024;
+    private double[] values;
+    private DecimalFormat format;
+    private int next = 0;
+
+    private static double[] values(long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            switch (i % 4) {
+                case 0:
+                    // a bid after a hill-climbing step
+                    double bid = random.nextDouble() * 2;
+                    values[i] = bid + 0.035 * bid;
+                    break;
+                case 1:
+                    // exact and near ties
+                    values[i] = random.nextInt(4000) / 2000d;
+                    break;
+                case 2:
+                    values[i] = Math.nextUp(random.nextInt(4000) / 2000d);
+                    break;
+                default:
+                    values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8) - 3);
+            }
+        }
+        return values;
+    }
+
+    private static double formatRound3(DecimalFormat format, double d) {
+        return Double.valueOf(format.format(d));
+    }
+
+    /**
+     * Fails the run if any value rounds differently.
+     */
+    @Setup
+    public void check() {
+        values = values(547);
+        format = new DecimalFormat("#.###");
+        int mismatches = 0;
+        for (double d : values) {
+            if (Double.compare(formatRound3(format, d), Util.round3(d)) != 0) {
+                mismatches++;
+            }
+        }
+        if (mismatches > 0) {
+            throw new IllegalStateException("values: " + VALUES + ", mismatches: " + mismatches);
+        }
+    }
+
+    /**
+     * @return the start of the next batch of values, so every call rounds different ones
+     */
+    private int nextBatch() {
+        int start = next;
+        next = (next + BATCH) & (VALUES - 1);
+        return start;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void decimalFormat(Blackhole bh) {
+        int start = nextBatch();
+        for (int i = start; i < start + BATCH; i++) {
+            bh.consume(formatRound3(format, values[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void round3(Blackhole bh) {
+        int start = nextBatch();
+        for (int i = start; i < start + BATCH; i++) {
+            bh.consume(Util.round3(values[i]));
+        }
+    }
+}
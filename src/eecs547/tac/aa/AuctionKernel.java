@@ -0,0 +1,286 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.QueryType;
+
+/**
+ * What-if model of one query's generalized second price auction. Ads are
+ * ranked by squashed bid, <code>bid * effect^squashing</code>; the top
+ * ranked ads above the regular reserve take the regular slots, the first
+ * of those above the promoted reserve are promoted, and each pays the
+ * squashed bid of the ad below it (or the reserve) divided by its own
+ * squashing factor.
+ * <p>
+ * The opponents are loaded once with {@link #setOpponents}, which ranks
+ * them; every {@link #evaluate} after that is a binary search and a few
+ * multiplications, with the answer left in fields instead of a new object,
+ * so candidate bids can be scored millions of times a second. Clicks follow
+ * a simple cascade: users look at the first slot and move to the next with
+ * the continuation probability, so clicks lost to conversions above are not
+ * modelled.
+ * <p>
+ * An instance holds the results of the last evaluation and is not thread
+ * safe; give each optimizer its own, e.g. through the copy constructor.
+ *
+ * @author Augie
+ */
+public class AuctionKernel {
+
+    private static final int INITIAL_OPPONENTS = 8;
+    /**
+     * Smallest bid the agents send, bids being rounded to three places.
+     */
+    public static final double MIN_BID = 0.001;
+    private int regularSlots, promotedSlots;
+    private double promotedBonus, squashing, regularReserve = 0d, promotedReserve = 0d, targetEffect = 0d;
+    // opponents ranked by squashed bid, highest first
+    private double[] scores = new double[INITIAL_OPPONENTS];
+    private int opponents = 0;
+    private double continuation = 0.5d;
+    // chance a user gets as far as each slot
+    private double[] reach;
+    // squashing factor of the last advertiser effect evaluated
+    private double lastEffect = Double.NaN, lastFactor;
+    // results of the last evaluation
+    private int slot;
+    private double cpc, clicks, clickProbability;
+    private boolean promoted;
+
+    /**
+     * @param regularSlots slots in each auction, from {@link edu.umich.eecs.tac.props.SlotInfo}
+     * @param promotedSlots how many of them may be promoted
+     * @param promotedBonus click bonus of a promoted slot
+     * @param squashing squashing parameter, from {@link edu.umich.eecs.tac.props.PublisherInfo}
+     */
+    public AuctionKernel(int regularSlots, int promotedSlots, double promotedBonus, double squashing) {
+        this.regularSlots = regularSlots;
+        this.promotedSlots = promotedSlots;
+        this.promotedBonus = promotedBonus;
+        this.squashing = squashing;
+        reach = new double[Math.max(regularSlots, 0)];
+        setContinuation(continuation);
+    }
+
+    /**
+     * Copies the other kernel's configuration and loaded opponents.
+     */
+    public AuctionKernel(AuctionKernel other) {
+        this(other.regularSlots, other.promotedSlots, other.promotedBonus, other.squashing);
+        regularReserve = other.regularReserve;
+        promotedReserve = other.promotedReserve;
+        targetEffect = other.targetEffect;
+        setContinuation(other.continuation);
+        scores = other.scores.clone();
+        opponents = other.opponents;
+    }
+
+    /**
+     * @return a rough advertiser effect for ads on the query type, the middle of the range the game draws from
+     */
+    public static double getDefaultAdvertiserEffect(QueryType type) {
+        if (type == QueryType.FOCUS_LEVEL_ZERO) {
+            return 0.25d;
+        } else if (type == QueryType.FOCUS_LEVEL_ONE) {
+            return 0.35d;
+        }
+        return 0.45d;
+    }
+
+    /**
+     * @return a rough chance that a user moves on to the next slot of an auction for the query type
+     */
+    public static double getDefaultContinuation(QueryType type) {
+        if (type == QueryType.FOCUS_LEVEL_ZERO) {
+            return 0.3d;
+        } else if (type == QueryType.FOCUS_LEVEL_ONE) {
+            return 0.4d;
+        }
+        return 0.5d;
+    }
+
+    /**
+     * Sets the reserve squashed bids; both default to 0.
+     */
+    public void setReserves(double regularReserve, double promotedReserve) {
+        this.regularReserve = regularReserve;
+        this.promotedReserve = promotedReserve;
+    }
+
+    /**
+     * @param targetEffect click boost of a targeted ad that matches the user, from {@link edu.umich.eecs.tac.props.AdvertiserInfo}
+     */
+    public void setTargetEffect(double targetEffect) {
+        this.targetEffect = targetEffect;
+    }
+
+    /**
+     * @param continuation chance a user looks at the next slot
+     */
+    public void setContinuation(double continuation) {
+        this.continuation = continuation;
+        double r = 1d;
+        for (int i = 0; i < reach.length; i++) {
+            reach[i] = r;
+            r *= continuation;
+        }
+    }
+
+    /**
+     * @return the squashing factor, <code>effect^squashing</code>
+     */
+    public double squash(double advertiserEffect) {
+        return Math.pow(advertiserEffect, squashing);
+    }
+
+    /**
+     * Loads the other advertisers in the query's auction.
+     * @param count number of opponents
+     * @param bids each opponent's estimated bid
+     * @param advertiserEffects each opponent's estimated advertiser effect
+     */
+    public void setOpponents(int count, double[] bids, double[] advertiserEffects) {
+        if (scores.length < count) {
+            scores = new double[Math.max(count, scores.length * 2)];
+        }
+        opponents = count;
+        // insertion sort, highest first; auctions are small
+        for (int i = 0; i < count; i++) {
+            double s = bids[i] * squash(advertiserEffects[i]);
+            int j = i;
+            while (j > 0 && scores[j - 1] < s) {
+                scores[j] = scores[j - 1];
+                j--;
+            }
+            scores[j] = s;
+        }
+    }
+
+    public int getOpponentCount() {
+        return opponents;
+    }
+
+    /**
+     * @return the number of opponents whose squashed bid is at least the score; we lose ties
+     */
+    private int rank(double score) {
+        int lo = 0, hi = opponents;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (scores[mid] >= score) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Places a candidate bid in the loaded auction. Read the outcome with
+     * {@link #getSlot()}, {@link #getCPC()}, {@link #getClicks()},
+     * {@link #getClickProbability()} and {@link #isPromoted()}.
+     * @param bid our bid
+     * @param advertiserEffect our advertiser effect for the query
+     * @param targeted whether our ad is targeted at what the users want
+     * @param impressions users searching the query
+     * @return our slot, 1 at the top, or 0 if the ad is not shown
+     */
+    public int evaluate(double bid, double advertiserEffect, boolean targeted, double impressions) {
+        if (advertiserEffect != lastEffect) {
+            lastEffect = advertiserEffect;
+            lastFactor = squash(advertiserEffect);
+        }
+        double factor = lastFactor, score = bid * factor;
+        int above = rank(score);
+        if (score < regularReserve || above >= regularSlots || !(bid > 0)) {
+            slot = 0;
+            cpc = 0d;
+            clicks = 0d;
+            clickProbability = 0d;
+            promoted = false;
+            return slot;
+        }
+        slot = above + 1;
+        promoted = slot <= promotedSlots && score >= promotedReserve;
+        // we pay for the next ad down, but never below the reserve
+        double next = above < opponents ? scores[above] : 0d;
+        double reserve = promoted ? promotedReserve : regularReserve;
+        cpc = Math.max(next, reserve) / factor;
+        double boost = (targeted ? 1d + targetEffect : 1d) * (promoted ? 1d + promotedBonus : 1d);
+        clickProbability = eta(advertiserEffect, boost);
+        clicks = impressions * reach[slot - 1] * clickProbability;
+        return slot;
+    }
+
+    /**
+     * @return the probability p raised by the factor x in odds, as the game does for targeting and promotion
+     */
+    public static double eta(double p, double x) {
+        return p * x / (p * x + 1d - p);
+    }
+
+    /**
+     * @return the slot from the last evaluation, 0 if not shown
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return the cost per click from the last evaluation
+     */
+    public double getCPC() {
+        return cpc;
+    }
+
+    /**
+     * @return the expected clicks from the last evaluation
+     */
+    public double getClicks() {
+        return clicks;
+    }
+
+    /**
+     * @return the chance that a user who sees the ad clicks it, from the last evaluation
+     */
+    public double getClickProbability() {
+        return clickProbability;
+    }
+
+    /**
+     * @return the expected cost from the last evaluation
+     */
+    public double getCost() {
+        return clicks * cpc;
+    }
+
+    /**
+     * The kernel ranks on point estimates, so this is 0 or 1.
+     * @return the chance the slot from the last evaluation is promoted
+     */
+    public double getPromotedProbability() {
+        return promoted ? 1d : 0d;
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    /**
+     * @return the lowest bid that puts the ad in the slot or above, given our
+     * advertiser effect, never below {@link #MIN_BID}, or infinity if there
+     * is no such slot
+     */
+    public double getBidForSlot(int slot, double advertiserEffect) {
+        if (slot < 1 || slot > regularSlots) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double factor = squash(advertiserEffect);
+        // we lose ties, so beat the ad now in the slot
+        double target = slot <= opponents ? scores[slot - 1] : 0d;
+        if (target <= regularReserve) {
+            // a bid of 0 is never shown, even with no reserve to clear
+            return Math.max(Math.nextUp(regularReserve / factor), MIN_BID);
+        }
+        return Math.max(Math.nextUp(target / factor), MIN_BID);
+    }
+}
@@ -0,0 +1,208 @@
+package eecs547.tac.aa;
+
+import java.util.Arrays;
+
+/**
+ * Estimates every opponent's bid on every query from the daily query
+ * report. Our own bid and cost per click pin down two squashed bids in each
+ * auction we were shown in: ours, and that of the ad right below us, which
+ * is what we paid. The ratio between the two is taken as the spacing
+ * between neighbouring ranks, and each opponent's squashed bid is placed
+ * that many steps above or below ours according to its average position.
+ * Dividing by the opponent's squashing factor gives its bid, which is
+ * smoothed into a running estimate, so each day only adjusts the
+ * estimates instead of recomputing them from the whole history.
+ * <p>
+ * Queries are inferred independently of each other and can run on a
+ * {@link QueryExecutor}; each task only writes its own query's cells.
+ * Opponent ordinals are those of the {@link OpponentStore}, which must have
+ * seen the report first.
+ *
+ * @author Augie
+ */
+public class BidInference {
+
+    /**
+     * Weight of the newest day in the estimates.
+     */
+    public static final double DEFAULT_SMOOTHING = 0.5;
+    /**
+     * Days an estimate is used for after the opponent was last placed.
+     */
+    public static final int DEFAULT_STALE_DAYS = 5;
+    /**
+     * Bounds on the spacing between neighbouring squashed bids.
+     */
+    private static final double MIN_RATIO = 0.5, MAX_RATIO = 0.98;
+    private static final int INITIAL_OPPONENTS = 8;
+    private final QueryIndex queryIndex;
+    private final OpponentStore store;
+    private final int queries;
+    private final double[] advertiserEffects, ourBids;
+    private double squashing = 1d, smoothing = DEFAULT_SMOOTHING;
+    private int staleDays = DEFAULT_STALE_DAYS;
+    private String self;
+    private QueryExecutor executor = new QueryExecutor(1);
+    private int capacity = INITIAL_OPPONENTS, day = 0;
+    /**
+     * [opponent][query]
+     */
+    private double[] bids;
+    private int[] lastDays;
+    private DayFrame frame;
+    private final QueryExecutor.Task inferer = new QueryExecutor.Task() {
+
+        public void run(int queryOrdinal) {
+            infer(queryOrdinal);
+        }
+    };
+
+    public BidInference(QueryIndex queryIndex, OpponentStore store) {
+        this.queryIndex = queryIndex;
+        this.store = store;
+        this.queries = queryIndex.size();
+        advertiserEffects = new double[queries];
+        ourBids = new double[queries];
+        for (int q = 0; q < queries; q++) {
+            advertiserEffects[q] = AuctionKernel.getDefaultAdvertiserEffect(queryIndex.getType(q));
+        }
+        bids = new double[capacity * queries];
+        lastDays = new int[capacity * queries];
+        Arrays.fill(bids, Double.NaN);
+    }
+
+    /**
+     * @param self our advertiser name, so we are not counted as an opponent
+     */
+    public void setSelf(String self) {
+        this.self = self;
+    }
+
+    public void setSquashing(double squashing) {
+        this.squashing = squashing;
+    }
+
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    public void setStaleDays(int staleDays) {
+        this.staleDays = staleDays;
+    }
+
+    public void setExecutor(QueryExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the advertiser effect assumed on a query, ours and the opponents'
+     * alike; by default the middle of the game's range for the query type.
+     */
+    public void setAdvertiserEffect(int queryOrdinal, double advertiserEffect) {
+        advertiserEffects[queryOrdinal] = advertiserEffect;
+    }
+
+    private void ensureCapacity(int opponents) {
+        if (opponents <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(opponents, capacity * 2);
+        int oldLength = bids.length;
+        bids = Arrays.copyOf(bids, newCapacity * queries);
+        Arrays.fill(bids, oldLength, bids.length, Double.NaN);
+        lastDays = Arrays.copyOf(lastDays, newCapacity * queries);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Updates the estimates from one day's report.
+     * @param frame the decoded query report
+     * @param ourBids our bid on each query for the day the report covers, NaN if unknown
+     */
+    public void handleQueryReport(DayFrame frame, double[] ourBids) {
+        ensureCapacity(store.size());
+        System.arraycopy(ourBids, 0, this.ourBids, 0, queries);
+        this.frame = frame;
+        day++;
+        executor.run(0, queries, inferer);
+        this.frame = null;
+    }
+
+    private void infer(int q) {
+        double position = frame.getPosition(q), cpc = frame.getCPC(q), bid = ourBids[q];
+        if (Double.isNaN(position) || !(position > 0) || Double.isNaN(cpc) || !(bid > 0)) {
+            // without our own placing there is nothing to measure against
+            return;
+        }
+        double factor = Math.pow(advertiserEffects[q], squashing);
+        double score = bid * factor, next = cpc * factor;
+        double ratio = next / score;
+        if (!(ratio >= MIN_RATIO)) {
+            ratio = MIN_RATIO;
+        } else if (ratio > MAX_RATIO) {
+            ratio = MAX_RATIO;
+        }
+        for (int e = 0; e < frame.getAdvertiserCount(q); e++) {
+            String advertiser = frame.getAdvertiser(q, e);
+            double p = frame.getAdvertiserPosition(q, e);
+            if (Double.isNaN(p) || !(p > 0) || advertiser.equals(self)) {
+                continue;
+            }
+            int o = store.indexOf(advertiser);
+            if (o < 0) {
+                continue;
+            }
+            double steps = p - position, s;
+            if (steps >= 1d) {
+                // the ad right below us set our price
+                s = next * Math.pow(ratio, steps - 1d);
+            } else {
+                s = score * Math.pow(ratio, steps);
+            }
+            double estimate = s / factor;
+            int cell = o * queries + q;
+            bids[cell] = Double.isNaN(bids[cell]) ? estimate : bids[cell] + smoothing * (estimate - bids[cell]);
+            lastDays[cell] = day;
+        }
+    }
+
+    /**
+     * @return the estimated bid, NaN if the opponent has never been placed against us
+     */
+    public double getBid(int opponent, int queryOrdinal) {
+        if (opponent >= capacity) {
+            return Double.NaN;
+        }
+        return bids[opponent * queries + queryOrdinal];
+    }
+
+    /**
+     * @return whether the estimate was updated within the stale days
+     */
+    public boolean isCurrent(int opponent, int queryOrdinal) {
+        if (opponent >= capacity) {
+            return false;
+        }
+        int cell = opponent * queries + queryOrdinal;
+        return !Double.isNaN(bids[cell]) && day - lastDays[cell] < staleDays;
+    }
+
+    /**
+     * Fills the current estimates for a query, ready for
+     * {@link AuctionKernel#setOpponents(int, double[], double[])}.
+     * @param bids filled with the bids, must hold {@link OpponentStore#size()} entries
+     * @param advertiserEffects filled with the assumed effects, same length
+     * @return the number of opponents filled in
+     */
+    public int fillOpponents(int queryOrdinal, double[] bids, double[] advertiserEffects) {
+        int n = 0;
+        for (int o = 0; o < store.size(); o++) {
+            if (isCurrent(o, queryOrdinal)) {
+                bids[n] = this.bids[o * queries + queryOrdinal];
+                advertiserEffects[n] = this.advertiserEffects[queryOrdinal];
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,347 @@
+package eecs547.tac.aa;
+
+import java.util.Arrays;
+
+/**
+ * Memo of what the auction model predicts for candidate bids: for every
+ * query and bid bucket the slot, cost per click, clicks, conversions and
+ * profit. The optimizers, the capacity allocation and what-if tools ask
+ * about the same few bids over and over within a day, and each answer
+ * takes an auction evaluation, so the answers are kept until the day or
+ * the query's inputs change.
+ * <p>
+ * Every query has its own segment of a fixed number of entries, evicting
+ * the least recently used, so the per-query tasks of a
+ * {@link QueryExecutor} can share one landscape without locking as long as
+ * each only asks about its own query. A segment is an open addressing table
+ * over bid buckets with the entries on a doubly linked recency list, all in
+ * arrays, so lookups do not allocate.
+ * <p>
+ * Answers are invalidated by day, with {@link #nextDay()}, and loading a
+ * query's opponents or inputs invalidates that query alone. Segments are
+ * cleared lazily the next time they are asked.
+ *
+ * @author Augie
+ */
+public class BidLandscape {
+
+    /**
+     * Width of a bid bucket; bids in a bucket are evaluated at its centre.
+     */
+    public static final double DEFAULT_BUCKET = 0.01;
+    /**
+     * Entries kept per query.
+     */
+    public static final int DEFAULT_ENTRIES = 128;
+    private static final int EMPTY = -1;
+    private final int queries, entries, tableSize, mask;
+    private final double bucket;
+    private final AuctionKernel[] kernels;
+    // per query inputs
+    private final double[] advertiserEffects, impressions, conversionProbabilities, revenues;
+    private final boolean[] targeted;
+    // per query segment state
+    private final int[] sizes, heads, tails, epochs;
+    private final long[] hits, misses;
+    // [query][entry]
+    private final int[] keys, slots, previous, next;
+    private final double[] cpcs, clicks, conversions, profits;
+    // [query][table cell], entry index or EMPTY
+    private final int[] table;
+    // the entry each query's last lookup landed on
+    private final int[] current;
+    private int epoch = 0, day = 0;
+
+    public BidLandscape(int queries) {
+        this(queries, DEFAULT_ENTRIES, DEFAULT_BUCKET);
+    }
+
+    /**
+     * @param queries number of queries
+     * @param entries bids remembered per query
+     * @param bucket width of a bid bucket
+     */
+    public BidLandscape(int queries, int entries, double bucket) {
+        if (entries < 1) {
+            throw new IllegalArgumentException("need at least one entry per query: " + entries);
+        }
+        if (!(bucket > 0)) {
+            throw new IllegalArgumentException("bucket must be positive: " + bucket);
+        }
+        this.queries = queries;
+        this.entries = entries;
+        this.bucket = bucket;
+        tableSize = Integer.highestOneBit(entries * 2 - 1) << 1;
+        mask = tableSize - 1;
+        kernels = new AuctionKernel[queries];
+        advertiserEffects = new double[queries];
+        impressions = new double[queries];
+        conversionProbabilities = new double[queries];
+        revenues = new double[queries];
+        targeted = new boolean[queries];
+        sizes = new int[queries];
+        heads = new int[queries];
+        tails = new int[queries];
+        epochs = new int[queries];
+        hits = new long[queries];
+        misses = new long[queries];
+        current = new int[queries];
+        keys = new int[queries * entries];
+        slots = new int[queries * entries];
+        previous = new int[queries * entries];
+        next = new int[queries * entries];
+        cpcs = new double[queries * entries];
+        clicks = new double[queries * entries];
+        conversions = new double[queries * entries];
+        profits = new double[queries * entries];
+        table = new int[queries * tableSize];
+        for (int q = 0; q < queries; q++) {
+            clear(q);
+            epochs[q] = epoch;
+        }
+    }
+
+    /**
+     * @param kernel the query's auction, owned by the landscape from now on
+     */
+    public void setKernel(int queryOrdinal, AuctionKernel kernel) {
+        kernels[queryOrdinal] = kernel;
+        stale(queryOrdinal);
+    }
+
+    public AuctionKernel getKernel(int queryOrdinal) {
+        return kernels[queryOrdinal];
+    }
+
+    /**
+     * Loads the query's opponents into its auction, see
+     * {@link AuctionKernel#setOpponents(int, double[], double[])}.
+     */
+    public void setOpponents(int queryOrdinal, int count, double[] bids, double[] advertiserEffects) {
+        kernels[queryOrdinal].setOpponents(count, bids, advertiserEffects);
+        stale(queryOrdinal);
+    }
+
+    /**
+     * @return the number of opponents loaded for the query
+     */
+    public int getOpponentCount(int queryOrdinal) {
+        return kernels[queryOrdinal] == null ? 0 : kernels[queryOrdinal].getOpponentCount();
+    }
+
+    /**
+     * Sets what the query's evaluations assume about us.
+     * @param advertiserEffect our advertiser effect
+     * @param targeted whether our ad is targeted
+     * @param impressions users expected to search the query
+     * @param conversionProbability chance a click converts
+     * @param revenue sales profit of a conversion
+     */
+    public void setInputs(int queryOrdinal, double advertiserEffect, boolean targeted, double impressions, double conversionProbability, double revenue) {
+        advertiserEffects[queryOrdinal] = advertiserEffect;
+        this.targeted[queryOrdinal] = targeted;
+        this.impressions[queryOrdinal] = impressions;
+        conversionProbabilities[queryOrdinal] = conversionProbability;
+        revenues[queryOrdinal] = revenue;
+        stale(queryOrdinal);
+    }
+
+    /**
+     * Forgets every answer at the start of a day.
+     */
+    public void nextDay() {
+        day++;
+        epoch++;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    /**
+     * Marks the query's answers as out of date without touching the other queries.
+     */
+    private void stale(int q) {
+        epochs[q] = epoch - 1;
+    }
+
+    private void clear(int q) {
+        Arrays.fill(table, q * tableSize, (q + 1) * tableSize, EMPTY);
+        sizes[q] = 0;
+        heads[q] = EMPTY;
+        tails[q] = EMPTY;
+        current[q] = EMPTY;
+    }
+
+    private int home(int key) {
+        return (key * 0x9E3779B9) >>> 7 & mask;
+    }
+
+    /**
+     * Predicts the outcome of a bid, from memory if the bid's bucket was
+     * asked before since the day or the query's inputs changed. Read it with
+     * {@link #getSlot(int)}, {@link #getCPC(int)}, {@link #getClicks(int)},
+     * {@link #getConversions(int)} and {@link #getProfit(int)}.
+     * @return our slot, 1 at the top, or 0 if the ad is not shown
+     */
+    public int evaluate(int queryOrdinal, double bid) {
+        int q = queryOrdinal;
+        if (epochs[q] != epoch) {
+            clear(q);
+            epochs[q] = epoch;
+        }
+        int key = (int) Math.round(bid / bucket);
+        int tbase = q * tableSize, base = q * entries;
+        int cell = home(key);
+        while (table[tbase + cell] != EMPTY) {
+            int e = table[tbase + cell];
+            if (keys[base + e] == key) {
+                hits[q]++;
+                touch(q, e);
+                current[q] = e;
+                return slots[base + e];
+            }
+            cell = (cell + 1) & mask;
+        }
+        misses[q]++;
+        int e;
+        if (sizes[q] < entries) {
+            e = sizes[q]++;
+        } else {
+            e = tails[q];
+            unlink(q, e);
+            remove(q, keys[base + e]);
+            // the table changed, find the free cell again
+            cell = home(key);
+            while (table[tbase + cell] != EMPTY) {
+                cell = (cell + 1) & mask;
+            }
+        }
+        table[tbase + cell] = e;
+        keys[base + e] = key;
+        link(q, e);
+        compute(q, base + e, key * bucket);
+        current[q] = e;
+        return slots[base + e];
+    }
+
+    private void compute(int q, int i, double bid) {
+        AuctionKernel kernel = kernels[q];
+        slots[i] = kernel.evaluate(bid, advertiserEffects[q], targeted[q], impressions[q]);
+        cpcs[i] = kernel.getCPC();
+        clicks[i] = kernel.getClicks();
+        conversions[i] = clicks[i] * conversionProbabilities[q];
+        profits[i] = conversions[i] * revenues[q] - clicks[i] * cpcs[i];
+    }
+
+    /**
+     * Removes a key from the query's table, shifting back any entries that
+     * probed past it.
+     */
+    private void remove(int q, int key) {
+        int tbase = q * tableSize, base = q * entries;
+        int i = home(key);
+        while (keys[base + table[tbase + i]] != key) {
+            i = (i + 1) & mask;
+        }
+        table[tbase + i] = EMPTY;
+        for (int j = (i + 1) & mask; table[tbase + j] != EMPTY; j = (j + 1) & mask) {
+            int k = home(keys[base + table[tbase + j]]);
+            // move it back if its home is not in (i, j]
+            if (i <= j ? (k <= i || k > j) : (k <= i && k > j)) {
+                table[tbase + i] = table[tbase + j];
+                table[tbase + j] = EMPTY;
+                i = j;
+            }
+        }
+    }
+
+    private void link(int q, int e) {
+        int base = q * entries;
+        previous[base + e] = EMPTY;
+        next[base + e] = heads[q];
+        if (heads[q] != EMPTY) {
+            previous[base + heads[q]] = e;
+        }
+        heads[q] = e;
+        if (tails[q] == EMPTY) {
+            tails[q] = e;
+        }
+    }
+
+    private void unlink(int q, int e) {
+        int base = q * entries, p = previous[base + e], n = next[base + e];
+        if (p != EMPTY) {
+            next[base + p] = n;
+        } else {
+            heads[q] = n;
+        }
+        if (n != EMPTY) {
+            previous[base + n] = p;
+        } else {
+            tails[q] = p;
+        }
+    }
+
+    private void touch(int q, int e) {
+        if (heads[q] != e) {
+            unlink(q, e);
+            link(q, e);
+        }
+    }
+
+    /**
+     * @return the slot from the query's last evaluation, 0 if not shown
+     */
+    public int getSlot(int queryOrdinal) {
+        return slots[queryOrdinal * entries + current[queryOrdinal]];
+    }
+
+    /**
+     * @return the cost per click from the query's last evaluation
+     */
+    public double getCPC(int queryOrdinal) {
+        return cpcs[queryOrdinal * entries + current[queryOrdinal]];
+    }
+
+    /**
+     * @return the expected clicks from the query's last evaluation
+     */
+    public double getClicks(int queryOrdinal) {
+        return clicks[queryOrdinal * entries + current[queryOrdinal]];
+    }
+
+    /**
+     * @return the expected conversions from the query's last evaluation
+     */
+    public double getConversions(int queryOrdinal) {
+        return conversions[queryOrdinal * entries + current[queryOrdinal]];
+    }
+
+    /**
+     * @return the expected profit from the query's last evaluation
+     */
+    public double getProfit(int queryOrdinal) {
+        return profits[queryOrdinal * entries + current[queryOrdinal]];
+    }
+
+    /**
+     * @return the share of evaluations answered from memory so far
+     */
+    public double getHitRate() {
+        long h = 0, m = 0;
+        for (int q = 0; q < queries; q++) {
+            h += hits[q];
+            m += misses[q];
+        }
+        return h + m == 0 ? 0d : (double) h / (h + m);
+    }
+
+    public double getBucket() {
+        return bucket;
+    }
+
+    public int size() {
+        return queries;
+    }
+}
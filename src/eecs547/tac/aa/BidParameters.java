@@ -0,0 +1,141 @@
+package eecs547.tac.aa;
+
+/**
+ * The hand set constants of the bidding strategy as one vector, so a
+ * version's agent can be built with other values and the values can be
+ * searched instead of edited: the daily bid movement, the first bid of
+ * each query type as a share of the query's average profit, the share
+ * of the distribution capacity used at which spend limits start being set,
+ * and how far the capacity left for a day follows the plan over the rest
+ * of the game rather than the one-day rule.
+ * <p>
+ * Each entry has an index, a name and a range that searches stay within.
+ * Vectors are immutable; {@link #with(int, double)} makes a changed copy.
+ *
+ * @author Augie
+ */
+public final class BidParameters {
+
+    public static final int MOVEMENT = 0, INITIAL_BID_F0 = 1, INITIAL_BID_F1 = 2, INITIAL_BID_F2 = 3, INITIAL_BID_SPECIAL = 4, BID_LIMITS_THRESHOLD = 5, CAPACITY_PLANNING = 6, SIZE = 7;
+    private static final String[] NAMES = {"movement", "initialBidF0", "initialBidF1", "initialBidF2", "initialBidSpecial", "bidLimitsThreshold", "capacityPlanning"};
+    private static final double[] LOWER = {0.005, 0.01, 0.01, 0.01, 0.01, 0d, 0d};
+    private static final double[] UPPER = {0.1, 0.3, 0.3, 0.3, 0.3, 1d, 1d};
+    private final double[] values;
+
+    /**
+     * @param movement the daily bid change as a share of the first bid
+     * @param initialBidF0 first focus level zero bid as a share of average profit
+     * @param initialBidF1 first focus level one bid as a share of average profit
+     * @param initialBidF2 first focus level two bid as a share of average profit
+     * @param initialBidSpecial first bid on our specialty as a share of average profit
+     * @param bidLimitsThreshold share of capacity used at which spend limits are set
+     * @param capacityPlanning weight of the planned capacity against the one-day rule's, 0 for the rule alone
+     */
+    public BidParameters(double movement, double initialBidF0, double initialBidF1, double initialBidF2, double initialBidSpecial, double bidLimitsThreshold, double capacityPlanning) {
+        this(new double[]{movement, initialBidF0, initialBidF1, initialBidF2, initialBidSpecial, bidLimitsThreshold, capacityPlanning});
+    }
+
+    private BidParameters(double[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @param values one value per index
+     */
+    public static BidParameters of(double[] values) {
+        if (values.length != SIZE) {
+            throw new IllegalArgumentException("expected " + SIZE + " values: " + values.length);
+        }
+        return new BidParameters(values.clone());
+    }
+
+    /**
+     * @return a copy with one value changed
+     */
+    public BidParameters with(int index, double value) {
+        double[] copy = values.clone();
+        copy[index] = value;
+        return new BidParameters(copy);
+    }
+
+    public double get(int index) {
+        return values[index];
+    }
+
+    public double[] toArray() {
+        return values.clone();
+    }
+
+    public double getMovement() {
+        return values[MOVEMENT];
+    }
+
+    public double getInitialBidF0() {
+        return values[INITIAL_BID_F0];
+    }
+
+    public double getInitialBidF1() {
+        return values[INITIAL_BID_F1];
+    }
+
+    public double getInitialBidF2() {
+        return values[INITIAL_BID_F2];
+    }
+
+    public double getInitialBidSpecial() {
+        return values[INITIAL_BID_SPECIAL];
+    }
+
+    public double getBidLimitsThreshold() {
+        return values[BID_LIMITS_THRESHOLD];
+    }
+
+    public double getCapacityPlanning() {
+        return values[CAPACITY_PLANNING];
+    }
+
+    public static String getName(int index) {
+        return NAMES[index];
+    }
+
+    /**
+     * @return the index of the named entry, -1 if there is none
+     */
+    public static int indexOf(String name) {
+        for (int i = 0; i < SIZE; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the lowest value a search tries
+     */
+    public static double getLowerBound(int index) {
+        return LOWER[index];
+    }
+
+    /**
+     * @return the highest value a search tries
+     */
+    public static double getUpperBound(int index) {
+        return UPPER[index];
+    }
+
+    /**
+     * @return name=value pairs separated by spaces
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < SIZE; i++) {
+            if (i > 0) {
+                s.append(' ');
+            }
+            s.append(NAMES[i]).append('=').append(values[i]);
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,239 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.BidBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Computes the day's bid bundle on a background thread as soon as its
+ * inputs are in, so that by the time the {@link se.sics.tasim.props.SimulationStatus}
+ * asks for the bids they are usually ready, and bounds how long the agent
+ * waits for them. At most one computation is in flight; committing waits
+ * for it until a deadline, starting it first if it was not started, so the
+ * bundle is the same as computing it in place.
+ * <p>
+ * A computation that misses its deadline is counted as an overrun and the
+ * caller sends something else. It is left to finish, since stopping it
+ * half way would leave the models half stepped, and its bundle is dropped.
+ * <p>
+ * The computation owns the models while it runs: nothing else may touch
+ * them between {@link #start(Callable)} and {@link #commit(Callable, long, long)},
+ * nor while an overrun computation is still running. Call {@link #await()}
+ * before touching the models outside of a commit, e.g. to handle the next
+ * day's reports.
+ *
+ * @author Augie
+ */
+public class BidPipeline {
+
+    /**
+     * Time allowed from the simulation status to the bids, from the
+     * <code>eecs547.tac.aa.bidBudget</code> system property in
+     * milliseconds, default 3000.
+     */
+    public static final long DEFAULT_BUDGET_MILLIS = Math.max(1, Integer.getInteger("eecs547.tac.aa.bidBudget", 3000));
+    /**
+     * A budget, in milliseconds or nanoseconds, that never runs out.
+     */
+    public static final long NO_BUDGET = Long.MAX_VALUE;
+    private ExecutorService thread;
+    private Future<BidBundle> pending, late;
+    private int commits = 0, overruns = 0, failures = 0;
+    private long lastLatency = 0L, maxLatency = 0L;
+
+    private ExecutorService getThread() {
+        if (thread == null) {
+            thread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "bid-pipeline");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return thread;
+    }
+
+    /**
+     * Starts computing the bundle in the background, unless a computation
+     * is already waiting to be committed (computing the bids twice would
+     * step the optimizers twice in one day) or an overrun one is still
+     * running.
+     */
+    public void start(Callable<BidBundle> computation) {
+        if (late != null) {
+            if (!late.isDone()) {
+                return;
+            }
+            late = null;
+        }
+        if (pending == null) {
+            pending = getThread().submit(computation);
+        }
+    }
+
+    public boolean isPending() {
+        return pending != null;
+    }
+
+    /**
+     * Waits for the day's bundle.
+     * @param computation computes the bundle if nothing was started
+     * @param startedAt {@link System#nanoTime()} the budget is measured from
+     * @param budget nanoseconds allowed from then, or {@link #NO_BUDGET}
+     * @return the bundle, or null if the budget ran out first
+     * @throws Exception whatever the computation threw
+     */
+    public BidBundle commit(Callable<BidBundle> computation, long startedAt, long budget) throws Exception {
+        // wraps for NO_BUDGET, but only its difference from the time is taken
+        long deadline = startedAt + budget;
+        commits++;
+        try {
+            if (late != null) {
+                // yesterday's overrun still owns the models
+                try {
+                    waitFor(late, deadline);
+                } catch (ExecutionException e) {
+                    // its bundle was dropped anyway
+                }
+                if (!late.isDone()) {
+                    overruns++;
+                    return null;
+                }
+                late = null;
+            }
+            start(computation);
+            BidBundle bundle = waitFor(pending, deadline);
+            if (bundle == null && !pending.isDone()) {
+                late = pending;
+                overruns++;
+                return null;
+            }
+            return bundle;
+        } catch (ExecutionException e) {
+            failures++;
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            pending = null;
+            lastLatency = System.nanoTime() - startedAt;
+            maxLatency = Math.max(maxLatency, lastLatency);
+        }
+    }
+
+    /**
+     * @return the computation's bundle, or null if the deadline passed first
+     */
+    private static BidBundle waitFor(Future<BidBundle> f, long deadline) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return f.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (TimeoutException e) {
+                    return null;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits, however long it takes, for any computation still running, so
+     * the caller may touch the models. An overrun computation's bundle is
+     * dropped; one waiting to be committed keeps its bundle, or its failure,
+     * for the commit.
+     */
+    public void await() {
+        if (late != null) {
+            join(late);
+            late = null;
+        }
+        if (pending != null) {
+            join(pending);
+        }
+    }
+
+    private static void join(Future<BidBundle> f) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    f.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // the commit reports it, if it still wants the bundle
+                    return;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return number of commits so far
+     */
+    public int getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return number of commits that ran out of time
+     */
+    public int getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return number of commits whose computation threw
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return nanoseconds from the start of the budget to the end of the last commit
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * @return the longest commit latency so far in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Stops the background thread once any computation in flight is done.
+     */
+    public void shutdown() {
+        await();
+        if (thread != null) {
+            thread.shutdown();
+            thread = null;
+        }
+        pending = null;
+        late = null;
+    }
+}
@@ -0,0 +1,90 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.Ad;
+import edu.umich.eecs.tac.props.BidBundle;
+
+/**
+ * The agent's bids for every query, kept in parallel arrays indexed by query
+ * ordinal. The optimizers write into the vector directly and the same
+ * buffers are reused every day; only the {@link BidBundle} handed to the
+ * publisher is new, since a sent bundle may still be in transit.
+ *
+ * @author Augie
+ */
+public class BidVector {
+
+    private final QueryIndex queryIndex;
+    private final double[] bids, spendLimits;
+    private final Ad[] ads;
+    private double campaignSpendLimit = BidBundle.NO_SPEND_LIMIT;
+
+    public BidVector(QueryIndex queryIndex) {
+        this.queryIndex = queryIndex;
+        bids = new double[queryIndex.size()];
+        spendLimits = new double[queryIndex.size()];
+        ads = new Ad[queryIndex.size()];
+        for (int i = 0; i < bids.length; i++) {
+            bids[i] = BidBundle.NO_SHOW_BID;
+            spendLimits[i] = BidBundle.NO_SPEND_LIMIT;
+        }
+    }
+
+    public int size() {
+        return bids.length;
+    }
+
+    public double getBid(int queryOrdinal) {
+        return bids[queryOrdinal];
+    }
+
+    public void setBid(int queryOrdinal, double bid) {
+        bids[queryOrdinal] = bid;
+    }
+
+    public double getSpendLimit(int queryOrdinal) {
+        return spendLimits[queryOrdinal];
+    }
+
+    public void setSpendLimit(int queryOrdinal, double spendLimit) {
+        spendLimits[queryOrdinal] = spendLimit;
+    }
+
+    public Ad getAd(int queryOrdinal) {
+        return ads[queryOrdinal];
+    }
+
+    public void setAd(int queryOrdinal, Ad ad) {
+        ads[queryOrdinal] = ad;
+    }
+
+    public double getCampaignSpendLimit() {
+        return campaignSpendLimit;
+    }
+
+    public void setCampaignSpendLimit(double campaignSpendLimit) {
+        this.campaignSpendLimit = campaignSpendLimit;
+    }
+
+    /**
+     * Copies another vector's bids, spend limits and ads into this one.
+     * @param other a vector over the same query index
+     */
+    public void copyFrom(BidVector other) {
+        System.arraycopy(other.bids, 0, bids, 0, bids.length);
+        System.arraycopy(other.spendLimits, 0, spendLimits, 0, spendLimits.length);
+        System.arraycopy(other.ads, 0, ads, 0, ads.length);
+        campaignSpendLimit = other.campaignSpendLimit;
+    }
+
+    /**
+     * @return a bid bundle holding every query's bid, ad and spend limit
+     */
+    public BidBundle toBidBundle() {
+        BidBundle bidBundle = new BidBundle();
+        for (int i = 0; i < bids.length; i++) {
+            bidBundle.addQuery(queryIndex.get(i), bids[i], ads[i], spendLimits[i]);
+        }
+        bidBundle.setCampaignDailySpendLimit(campaignSpendLimit);
+        return bidBundle;
+    }
+}
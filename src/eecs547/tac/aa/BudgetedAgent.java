@@ -0,0 +1,17 @@
+package eecs547.tac.aa;
+
+/**
+ * An agent that bounds the time from the simulation status to its bids,
+ * see {@link BidPipeline}. Offline games wait for the agents anyway, so
+ * they lift the bound with {@link BidPipeline#NO_BUDGET}; otherwise a
+ * loaded machine would change the bids sent and so the results.
+ *
+ * @author Augie
+ */
+public interface BudgetedAgent {
+
+    /**
+     * @param millis time from the simulation status to sending the bids before falling back
+     */
+    void setBidBudget(long millis);
+}
@@ -0,0 +1,376 @@
+package eecs547.tac.aa;
+
+import java.util.Arrays;
+
+/**
+ * Multiple-choice knapsack over the queries: every query (group) offers a
+ * few options, each with an expected value and an expected use of
+ * distribution capacity, and exactly one option is picked per query so the
+ * total value is as large as possible without the total use going over the
+ * capacity.
+ * <p>
+ * Solving runs in two passes. A greedy pass over the upper convex hull of
+ * every group's options, topped up with whatever options off the hull still
+ * fit, gives a feasible answer almost immediately; a dynamic program over
+ * the capacity, cut into at most {@link #MAX_CELLS} cells, then improves on
+ * it. The program checks the deadline after every
+ * group and gives up if it has passed, leaving the greedy answer in place,
+ * so a solve never runs much past its deadline however many queries there
+ * are. Weights are rounded up to whole cells in the program, so its answers
+ * are always feasible for the exact weights too.
+ * <p>
+ * All buffers are sized up front and reused, so {@link #solve(double, long)}
+ * does not allocate once the instance has been used.
+ *
+ * @author Augie
+ */
+public class CapacityAllocator {
+
+    /**
+     * Upper bound on the capacity resolution of the dynamic program.
+     */
+    public static final int MAX_CELLS = 2048;
+    private final int groups, maxOptions;
+    private final int[] counts, order, hull, hullSizes, hullPositions, choices, units, heap;
+    private final double[] values, weights, slopes;
+    private int heapSize = 0;
+    private double[] previous = new double[0], current = new double[0];
+    private int[] table = new int[0];
+    private double value = 0d, weight = 0d;
+    private boolean feasible = false, optimal = false;
+
+    /**
+     * @param groups number of groups, i.e. queries
+     * @param maxOptions most options any one group may have
+     */
+    public CapacityAllocator(int groups, int maxOptions) {
+        if (maxOptions < 1) {
+            throw new IllegalArgumentException("need at least one option per group: " + maxOptions);
+        }
+        this.groups = groups;
+        this.maxOptions = maxOptions;
+        counts = new int[groups];
+        order = new int[groups * maxOptions];
+        hull = new int[groups * maxOptions];
+        hullSizes = new int[groups];
+        hullPositions = new int[groups];
+        choices = new int[groups];
+        heap = new int[groups];
+        slopes = new double[groups];
+        units = new int[groups * maxOptions];
+        values = new double[groups * maxOptions];
+        weights = new double[groups * maxOptions];
+    }
+
+    public int getGroups() {
+        return groups;
+    }
+
+    public int getMaxOptions() {
+        return maxOptions;
+    }
+
+    /**
+     * Removes every option.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(choices, 0);
+        value = 0d;
+        weight = 0d;
+        feasible = false;
+        optimal = false;
+    }
+
+    /**
+     * Adds an option to a group. When options tie on value the one added
+     * first is preferred.
+     * @param value expected value of the option, e.g. profit
+     * @param weight expected capacity use, must not be negative
+     * @return the option's index within the group
+     */
+    public int addOption(int group, double value, double weight) {
+        if (counts[group] == maxOptions) {
+            throw new IllegalStateException("group " + group + " already has " + maxOptions + " options");
+        }
+        if (!(weight >= 0)) {
+            throw new IllegalArgumentException("weight must not be negative: " + weight);
+        }
+        if (Double.isNaN(value)) {
+            throw new IllegalArgumentException("value must be a number");
+        }
+        int k = counts[group]++;
+        values[group * maxOptions + k] = value;
+        weights[group * maxOptions + k] = weight;
+        return k;
+    }
+
+    public int getOptionCount(int group) {
+        return counts[group];
+    }
+
+    /**
+     * Picks one option per group.
+     * @param capacity capacity to fill
+     * @param deadline value of {@link System#nanoTime()} by which to stop improving the answer
+     * @return true if the answer is optimal at the program's resolution,
+     * false if the deadline cut it short or no answer fits at that resolution
+     */
+    public boolean solve(double capacity, long deadline) {
+        for (int g = 0; g < groups; g++) {
+            if (counts[g] == 0) {
+                throw new IllegalStateException("group " + g + " has no options");
+            }
+        }
+        if (!(capacity > 0)) {
+            capacity = 0d;
+        }
+        greedy(capacity);
+        optimal = program(capacity, deadline);
+        return optimal;
+    }
+
+    /**
+     * Sorts a group's options by weight, ties by value, then builds the upper
+     * convex hull from the lightest best option.
+     */
+    private void buildHull(int g) {
+        int base = g * maxOptions, n = counts[g];
+        for (int k = 0; k < n; k++) {
+            int j = k;
+            while (j > 0 && before(base + k, base + order[base + j - 1])) {
+                order[base + j] = order[base + j - 1];
+                j--;
+            }
+            order[base + j] = k;
+        }
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int k = order[base + i];
+            if (size > 0 && values[base + k] <= values[base + hull[base + size - 1]]) {
+                continue;
+            }
+            while (size >= 2 && slope(base, hull[base + size - 2], hull[base + size - 1]) <= slope(base, hull[base + size - 1], k)) {
+                size--;
+            }
+            hull[base + size++] = k;
+        }
+        hullSizes[g] = size;
+    }
+
+    private boolean before(int a, int b) {
+        if (weights[a] != weights[b]) {
+            return weights[a] < weights[b];
+        }
+        return values[a] > values[b];
+    }
+
+    private double slope(int base, int from, int to) {
+        return (values[base + to] - values[base + from]) / (weights[base + to] - weights[base + from]);
+    }
+
+    /**
+     * Starts every group at the base of its hull and repeatedly takes the
+     * most efficient step up any hull that still fits, then fills what is
+     * left. The groups are kept in a heap keyed on their next step's
+     * efficiency.
+     */
+    private void greedy(double capacity) {
+        value = 0d;
+        weight = 0d;
+        heapSize = 0;
+        for (int g = 0; g < groups; g++) {
+            buildHull(g);
+            hullPositions[g] = 0;
+            int k = hull[g * maxOptions];
+            choices[g] = k;
+            value += values[g * maxOptions + k];
+            weight += weights[g * maxOptions + k];
+        }
+        feasible = weight <= capacity;
+        if (!feasible) {
+            return;
+        }
+        for (int g = 0; g < groups; g++) {
+            offer(g);
+        }
+        while (heapSize > 0) {
+            int g = poll();
+            int base = g * maxOptions, p = hullPositions[g];
+            int from = hull[base + p], to = hull[base + p + 1];
+            double step = weights[base + to] - weights[base + from];
+            // every later point on the hull weighs more than this one, so none
+            // of them fits either; an option below the hull still may
+            if (weight + step > capacity) {
+                continue;
+            }
+            value += values[base + to] - values[base + from];
+            weight += step;
+            choices[g] = to;
+            hullPositions[g] = p + 1;
+            offer(g);
+        }
+        fill(capacity);
+    }
+
+    /**
+     * Moves each group, lowest first, to its most valuable option that
+     * still fits, which can only be one off the hull between the point the
+     * group reached and the next. This is not optimal across groups; the
+     * program is.
+     */
+    private void fill(double capacity) {
+        for (int g = 0; g < groups; g++) {
+            int base = g * maxOptions, from = choices[g], to = from;
+            for (int k = 0; k < counts[g]; k++) {
+                if (values[base + k] > values[base + to] && weight - weights[base + from] + weights[base + k] <= capacity) {
+                    to = k;
+                }
+            }
+            if (to != from) {
+                value += values[base + to] - values[base + from];
+                weight += weights[base + to] - weights[base + from];
+                choices[g] = to;
+            }
+        }
+    }
+
+    private void offer(int g) {
+        int base = g * maxOptions, p = hullPositions[g];
+        if (p + 1 >= hullSizes[g]) {
+            return;
+        }
+        slopes[g] = slope(base, hull[base + p], hull[base + p + 1]);
+        int i = heapSize++;
+        while (i > 0 && higher(g, heap[(i - 1) / 2])) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = g;
+    }
+
+    private int poll() {
+        int top = heap[0], last = heap[--heapSize], i = 0;
+        while (2 * i + 1 < heapSize) {
+            int c = 2 * i + 1;
+            if (c + 1 < heapSize && higher(heap[c + 1], heap[c])) {
+                c++;
+            }
+            if (!higher(heap[c], last)) {
+                break;
+            }
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    /**
+     * Steeper steps first, then lower groups, so ties are broken the same way every time.
+     */
+    private boolean higher(int a, int b) {
+        if (slopes[a] != slopes[b]) {
+            return slopes[a] > slopes[b];
+        }
+        return a < b;
+    }
+
+    /**
+     * Dynamic program over capacity cells, replacing the greedy answer if it
+     * finds a better one before the deadline.
+     */
+    private boolean program(double capacity, long deadline) {
+        int cells = (int) Math.min(MAX_CELLS, Math.ceil(capacity));
+        double unit = cells == 0 ? 1d : capacity / cells;
+        if (previous.length < cells + 1) {
+            previous = new double[cells + 1];
+            current = new double[cells + 1];
+        }
+        if (table.length < groups * (cells + 1)) {
+            table = new int[groups * (cells + 1)];
+        }
+        for (int i = 0; i < groups * maxOptions; i++) {
+            units[i] = weights[i] > 0 ? (int) Math.ceil(weights[i] / unit - 1e-9) : 0;
+        }
+        Arrays.fill(previous, 0, cells + 1, 0d);
+        for (int g = 0; g < groups; g++) {
+            int base = g * maxOptions, row = g * (cells + 1);
+            for (int c = 0; c <= cells; c++) {
+                double best = Double.NEGATIVE_INFINITY;
+                int choice = -1;
+                for (int k = 0; k < counts[g]; k++) {
+                    int u = units[base + k];
+                    if (u <= c && previous[c - u] + values[base + k] > best) {
+                        best = previous[c - u] + values[base + k];
+                        choice = k;
+                    }
+                }
+                current[c] = best;
+                table[row + c] = choice;
+            }
+            double[] t = previous;
+            previous = current;
+            current = t;
+            if (System.nanoTime() - deadline > 0 && g + 1 < groups) {
+                return false;
+            }
+        }
+        if (previous[cells] == Double.NEGATIVE_INFINITY) {
+            // nothing fits at the program's resolution, so nothing is proven
+            return false;
+        }
+        if (feasible && previous[cells] <= value + 1e-9) {
+            return true;
+        }
+        // walk back through the table
+        value = 0d;
+        weight = 0d;
+        for (int g = groups - 1, c = cells; g >= 0; g--) {
+            int k = table[g * (cells + 1) + c];
+            choices[g] = k;
+            value += values[g * maxOptions + k];
+            weight += weights[g * maxOptions + k];
+            c -= units[g * maxOptions + k];
+        }
+        feasible = true;
+        return true;
+    }
+
+    /**
+     * @return the option picked for the group by the last solve
+     */
+    public int getChoice(int group) {
+        return choices[group];
+    }
+
+    /**
+     * @return total value of the picked options
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return total weight of the picked options
+     */
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return whether the picked options fit in the capacity; if not, every
+     * group is on its lightest option
+     */
+    public boolean isFeasible() {
+        return feasible;
+    }
+
+    /**
+     * @return whether the last solve ran the dynamic program to the end and
+     * found an answer that fits
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+}
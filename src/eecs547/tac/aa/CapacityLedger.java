@@ -0,0 +1,133 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.Query;
+import edu.umich.eecs.tac.props.SalesReport;
+
+/**
+ * Rolling ledger of the conversions that count against the distribution
+ * capacity. Each {@link SalesReport} adds one day and drops the day that
+ * left the distribution window, so the used capacity is always available
+ * without rescanning the history.
+ *
+ * @author Augie
+ */
+public class CapacityLedger {
+
+    private final QueryIndex queryIndex;
+    private final int window;
+    /**
+     * Conversions per day and per query per day, indexed from head as days ago.
+     */
+    private final int[] dayTotals;
+    private final int[][] queryDays;
+    private final int[] queryTotals;
+    private int head = 0, used = 0;
+
+    public CapacityLedger(QueryIndex queryIndex, int distributionWindow) {
+        if (distributionWindow < 1) {
+            throw new IllegalArgumentException("distribution window must be positive: " + distributionWindow);
+        }
+        this.queryIndex = queryIndex;
+        window = distributionWindow;
+        dayTotals = new int[window];
+        queryDays = new int[queryIndex.size()][window];
+        queryTotals = new int[queryIndex.size()];
+    }
+
+    /**
+     * Starts a new day, expiring the oldest day in the window.
+     */
+    private void nextDay() {
+        head = head == 0 ? window - 1 : head - 1;
+        used -= dayTotals[head];
+        dayTotals[head] = 0;
+        for (int r = 0; r < queryDays.length; r++) {
+            queryTotals[r] -= queryDays[r][head];
+            queryDays[r][head] = 0;
+        }
+    }
+
+    public void handleSalesReport(DayFrame frame) {
+        nextDay();
+        for (int r = 0; r < queryDays.length; r++) {
+            int conversions = frame.getConversions(r);
+            queryDays[r][head] = conversions;
+            queryTotals[r] += conversions;
+        }
+        dayTotals[head] = frame.getTotalConversions();
+        used += dayTotals[head];
+    }
+
+    public void handleSalesReport(SalesReport salesReport) {
+        nextDay();
+        for (int r = 0; r < queryDays.length; r++) {
+            int conversions = salesReport.getConversions(queryIndex.get(r));
+            queryDays[r][head] = conversions;
+            queryTotals[r] += conversions;
+            dayTotals[head] += conversions;
+        }
+        used += dayTotals[head];
+    }
+
+    public int getDistributionWindow() {
+        return window;
+    }
+
+    /**
+     * @return conversions over the distribution window
+     */
+    public int getUsedCapacity() {
+        return used;
+    }
+
+    /**
+     * @param q the query
+     * @return conversions for the query over the distribution window
+     */
+    public int getUsedCapacity(Query q) {
+        int r = queryIndex.indexOf(q);
+        if (r < 0) {
+            return 0;
+        }
+        return queryTotals[r];
+    }
+
+    /**
+     * @param queryOrdinal the query's ordinal in the {@link QueryIndex}
+     * @return conversions for the query over the distribution window
+     */
+    public int getUsedCapacity(int queryOrdinal) {
+        return queryTotals[queryOrdinal];
+    }
+
+    /**
+     * @param daysAgo 0 for the most recent sales report
+     * @return total conversions reported that day, 0 if outside the window
+     */
+    public int getConversions(int daysAgo) {
+        if (daysAgo < 0 || daysAgo >= window) {
+            return 0;
+        }
+        return dayTotals[(head + daysAgo) % window];
+    }
+
+    /**
+     * @param daysAhead 1 for the next sales report
+     * @return conversions that leave the window on that day
+     */
+    public int getExpiring(int daysAhead) {
+        return getConversions(window - daysAhead);
+    }
+
+    /**
+     * @param daysAhead days from now
+     * @return used capacity on that day if no further conversions are made
+     */
+    public int getProjectedUsedCapacity(int daysAhead) {
+        int projected = used;
+        for (int d = 1; d <= daysAhead && d <= window; d++) {
+            projected -= getExpiring(d);
+        }
+        return projected;
+    }
+}
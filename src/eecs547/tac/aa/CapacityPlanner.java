@@ -0,0 +1,254 @@
+package eecs547.tac.aa;
+
+import java.util.Arrays;
+
+/**
+ * Plans how many conversions to aim for on each of the remaining days. A
+ * conversion counts against the distribution capacity for as long as it is
+ * in the distribution window, and every conversion over the capacity
+ * lowers the conversion rate by the capacity discounter, so the clicks for
+ * each conversion cost more. Going over capacity today therefore costs on
+ * every day the conversions stay in the window, which a one day rule cannot
+ * see.
+ * <p>
+ * The plan is a dynamic program over the days left in the game. Each day's
+ * target is one of a few levels from none up to {@link #MAX_RATE} times the
+ * sustainable daily rate (capacity over window), and the state is the
+ * levels planned for the days before it that are still in its window, so
+ * the plan's own conversions leave the window exactly when they should.
+ * Conversions already reported, and today's, which are still unknown, are
+ * added to every day whose window they fall in. Long windows get fewer
+ * levels so there are at most {@link #MAX_STATES} states. Windows longer
+ * than {@link #MAX_SPAN} days, which would need more even with two levels,
+ * keep only that many days of the plan's own conversions in the state, so
+ * the plan sees its older conversions leave early; reported conversions
+ * still count for the whole window. More conversions in
+ * a day take higher bids, so their average cost grows with the day's
+ * target by {@link #COST_ELASTICITY} relative to today's; without it the
+ * plan would crowd the conversions into as few days as it can.
+ * <p>
+ * The capacity discounter's powers are tabled once per game, and before
+ * each day of a solve the gain of every level against every possible
+ * window total is tabled, so the program itself only adds and compares.
+ * The program is solved again every day from that day's ledger; its tables
+ * are sized by the first, longest, solve and reused.
+ *
+ * @author Augie
+ */
+public class CapacityPlanner {
+
+    /**
+     * Highest daily target as a multiple of the sustainable daily rate.
+     */
+    public static final double MAX_RATE = 2d;
+    /**
+     * Most levels a day's target can take.
+     */
+    public static final int MAX_LEVELS = 9;
+    /**
+     * Most states per day, i.e. combinations of levels in a window.
+     */
+    public static final int MAX_STATES = 1 << 16;
+    /**
+     * Most days of planned conversions a state holds, counting the day being
+     * planned: two levels over the days before it fill {@link #MAX_STATES}.
+     */
+    public static final int MAX_SPAN = Integer.numberOfTrailingZeros(MAX_STATES) + 1;
+    /**
+     * Exponent of the average cost of a conversion in the day's conversions.
+     */
+    public static final double COST_ELASTICITY = 0.5;
+    private final int capacity, window, span, levels, states, maxTotal;
+    private final double discounter, unit;
+    /**
+     * discounter^k for every whole overuse k the plan can reach.
+     */
+    private final double[] discounts;
+    /**
+     * The sum of the levels held in each state.
+     */
+    private final int[] totals;
+    /**
+     * [window total][level] for the day being solved.
+     */
+    private final double[] gains;
+    private double[] known = new double[0], values, next;
+    private byte[] policy = new byte[0];
+    private int horizon = 0;
+    private double expectedProfit = 0d;
+
+    /**
+     * @param capacity the distribution capacity
+     * @param window the distribution window in days
+     * @param discounter the distribution capacity discounter
+     */
+    public CapacityPlanner(int capacity, int window, double discounter) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("distribution window must be positive: " + window);
+        }
+        if (!(discounter > 0 && discounter <= 1)) {
+            throw new IllegalArgumentException("discounter must be in (0, 1]: " + discounter);
+        }
+        this.capacity = capacity;
+        this.window = window;
+        this.discounter = discounter;
+        span = Math.min(window, MAX_SPAN);
+        int l = MAX_LEVELS;
+        while (l > 2 && Math.pow(l, span - 1) > MAX_STATES) {
+            l--;
+        }
+        levels = l;
+        states = (int) Math.pow(levels, span - 1);
+        unit = MAX_RATE * capacity / window / (levels - 1);
+        maxTotal = (span - 1) * (levels - 1);
+        totals = new int[states];
+        for (int s = 1; s < states; s++) {
+            totals[s] = totals[s / levels] + s % levels;
+        }
+        gains = new double[(maxTotal + 1) * levels];
+        values = new double[states];
+        next = new double[states];
+        // the plan alone can fill the window to MAX_RATE times the capacity
+        discounts = new double[(int) Math.ceil(MAX_RATE * capacity) + 1];
+        discounts[0] = 1d;
+        for (int k = 1; k < discounts.length; k++) {
+            discounts[k] = discounts[k - 1] * discounter;
+        }
+    }
+
+    /**
+     * @param used conversions in the window, counting those of the day itself so far
+     * @return the factor the conversion rate is cut by
+     */
+    public double getDiscount(double used) {
+        double over = used - capacity;
+        if (!(over > 0)) {
+            return 1d;
+        }
+        int k = (int) over;
+        if (k + 1 >= discounts.length) {
+            return Math.pow(discounter, over);
+        }
+        return discounts[k] + (over - k) * (discounts[k + 1] - discounts[k]);
+    }
+
+    /**
+     * Plans the remaining days.
+     * @param ledger the conversions reported so far
+     * @param today conversions expected on the day being played, whose report is not in yet
+     * @param days days to plan, starting with the next one
+     * @param revenuePerConversion average revenue of a conversion
+     * @param costPerConversion average cost of a conversion over the last reported day
+     * @return conversions to aim for on the next day
+     */
+    public double plan(CapacityLedger ledger, double today, int days, double revenuePerConversion, double costPerConversion) {
+        if (days < 1) {
+            horizon = 0;
+            expectedProfit = 0d;
+            return 0d;
+        }
+        ensureHorizon(days);
+        horizon = days;
+        // the last reported day paid for its conversions at its own discount
+        double baseCost = costPerConversion * getDiscount(ledger.getUsedCapacity() - 0.5 * ledger.getConversions(0));
+        double rate = today > 0 ? today : (double) capacity / window;
+        // known[k]: reported and today's conversions in the window of planned day k
+        for (int k = 1; k <= days; k++) {
+            known[k] = ledger.getProjectedUsedCapacity(k + 1);
+            if (k < window) {
+                known[k] += today;
+            }
+        }
+        Arrays.fill(next, 0d);
+        for (int k = days; k >= 1; k--) {
+            for (int t = 0; t <= maxTotal; t++) {
+                for (int a = 0; a < levels; a++) {
+                    double x = a * unit;
+                    double cost = baseCost * Math.pow(x / rate, COST_ELASTICITY);
+                    gains[t * levels + a] = x * (revenuePerConversion - cost / getDiscount(known[k] + t * unit + 0.5 * x));
+                }
+            }
+            int row = k * states;
+            for (int s = 0; s < states; s++) {
+                // the oldest day leaves the window and today joins it
+                int gain = totals[s] * levels, shifted = s * levels % states;
+                double best = Double.NEGATIVE_INFINITY;
+                int choice = 0;
+                for (int a = 0; a < levels; a++) {
+                    double v = gains[gain + a] + next[shifted + a];
+                    if (v > best) {
+                        best = v;
+                        choice = a;
+                    }
+                }
+                values[s] = best;
+                policy[row + s] = (byte) choice;
+            }
+            double[] t = next;
+            next = values;
+            values = t;
+        }
+        expectedProfit = next[0];
+        return getTarget(1);
+    }
+
+    private void ensureHorizon(int days) {
+        if (known.length < days + 1) {
+            known = new double[days + 1];
+            policy = new byte[(days + 1) * states];
+        }
+    }
+
+    /**
+     * @param day 1 for the next day
+     * @return the conversions the last plan aims for that day, following its policy
+     */
+    public double getTarget(int day) {
+        if (day < 1 || day > horizon) {
+            return 0d;
+        }
+        int s = 0, a = 0;
+        for (int k = 1; k <= day; k++) {
+            a = policy[k * states + s];
+            s = s * levels % states + a;
+        }
+        return a * unit;
+    }
+
+    /**
+     * @return the profit the last plan expects over its days
+     */
+    public double getExpectedProfit() {
+        return expectedProfit;
+    }
+
+    /**
+     * @return the conversions between neighbouring levels
+     */
+    public double getLevelStep() {
+        return unit;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getDistributionWindow() {
+        return window;
+    }
+
+    /**
+     * @return days of the plan's own conversions counted against each day,
+     * the window unless it is longer than {@link #MAX_SPAN}
+     */
+    public int getSpan() {
+        return span;
+    }
+}
@@ -0,0 +1,197 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.AdvertiserInfo;
+import edu.umich.eecs.tac.props.Product;
+import edu.umich.eecs.tac.props.Query;
+import edu.umich.eecs.tac.props.QueryType;
+import edu.umich.eecs.tac.props.RetailCatalog;
+
+/**
+ * The game's conversion and click probabilities for every query, worked out
+ * once from the {@link AdvertiserInfo} and {@link RetailCatalog} so model
+ * based optimizers can look them up instead of raising the capacity
+ * discounter to a power for every candidate bid.
+ * <p>
+ * A click converts with the focus effect of the query's type, or the
+ * game's usual one when the advertiser information leaves it out, lowered by
+ * the capacity discounter once per conversion over capacity, and raised in
+ * odds by the component bonus when the user wants a product of our
+ * component specialty. Users of a query are spread evenly over the
+ * products matching it, so the bonus applies to the share of those products
+ * with our component; the same share rule gives the expected sales profit
+ * of a conversion with the manufacturer bonus. The conversion table has a
+ * row per query and a column per conversion over capacity, up to the point
+ * where the discount has all but closed the query.
+ * <p>
+ * Click probabilities use the game's default advertiser effect for the
+ * query type, for a generic ad and for an ad targeted at one product
+ * matching the query, which raises clicks in odds by the target effect for
+ * the users who want that product and lowers them for the rest. Promotion
+ * is left to {@link AuctionKernel}.
+ *
+ * @author Augie
+ */
+public class ConversionTables {
+
+    /**
+     * Ad types, the second index of the click table.
+     */
+    public static final int GENERIC = 0, TARGETED = 1, AD_TYPES = 2;
+    /**
+     * The discount below which the conversion table stops.
+     */
+    public static final double MIN_DISCOUNT = 1e-4;
+    private final int queries, capacity, overuses;
+    private final double discounter;
+    private final double[] discounts, focusEffects, componentShares, revenues, clickProbabilities;
+    /**
+     * [query][conversions over capacity]
+     */
+    private final double[] conversionProbabilities;
+    private final double componentBonus;
+
+    public ConversionTables(QueryIndex queryIndex, RetailCatalog retailCatalog, AdvertiserInfo advertiserInfo) {
+        queries = queryIndex.size();
+        capacity = advertiserInfo.getDistributionCapacity();
+        discounter = advertiserInfo.getDistributionCapacityDiscounter();
+        componentBonus = advertiserInfo.getComponentBonus();
+        if (discounter > 0 && discounter < 1) {
+            overuses = (int) Math.ceil(Math.log(MIN_DISCOUNT) / Math.log(discounter)) + 1;
+        } else {
+            overuses = 1;
+        }
+        discounts = new double[overuses];
+        discounts[0] = 1d;
+        for (int k = 1; k < overuses; k++) {
+            discounts[k] = discounts[k - 1] * discounter;
+        }
+        focusEffects = new double[queries];
+        componentShares = new double[queries];
+        revenues = new double[queries];
+        clickProbabilities = new double[queries * AD_TYPES];
+        conversionProbabilities = new double[queries * overuses];
+        String manufacturer = advertiserInfo.getManufacturerSpecialty(), component = advertiserInfo.getComponentSpecialty();
+        double targetEffect = advertiserInfo.getTargetEffect();
+        for (int q = 0; q < queries; q++) {
+            Query query = queryIndex.get(q);
+            QueryType type = queryIndex.getType(q);
+            int products = 0, specialty = 0;
+            double profit = 0d;
+            for (Product p : retailCatalog.keys()) {
+                if ((query.getComponent() == null || query.getComponent().equals(p.getComponent())) && (query.getManufacturer() == null || query.getManufacturer().equals(p.getManufacturer()))) {
+                    products++;
+                    if (p.getComponent().equals(component)) {
+                        specialty++;
+                    }
+                    double salesProfit = retailCatalog.getSalesProfit(p);
+                    if (p.getManufacturer().equals(manufacturer)) {
+                        salesProfit *= 1d + advertiserInfo.getManufacturerBonus();
+                    }
+                    profit += salesProfit;
+                }
+            }
+            double focusEffect = advertiserInfo.getFocusEffects(type);
+            focusEffects[q] = focusEffect > 0 ? focusEffect : getDefaultFocusEffect(type);
+            componentShares[q] = products == 0 ? 0d : (double) specialty / products;
+            revenues[q] = products == 0 ? 0d : profit / products;
+            for (int k = 0; k < overuses; k++) {
+                conversionProbabilities[q * overuses + k] = convert(q, discounts[k]);
+            }
+            double effect = AuctionKernel.getDefaultAdvertiserEffect(type);
+            double matching = products == 0 ? 0d : 1d / products;
+            clickProbabilities[q * AD_TYPES + GENERIC] = effect;
+            clickProbabilities[q * AD_TYPES + TARGETED] = matching * AuctionKernel.eta(effect, 1d + targetEffect) + (1d - matching) * AuctionKernel.eta(effect, 1d / (1d + targetEffect));
+        }
+    }
+
+    /**
+     * @return the game's usual conversion rate for the query type, for when
+     * the advertiser information leaves the focus effects out
+     */
+    public static double getDefaultFocusEffect(QueryType type) {
+        if (type == QueryType.FOCUS_LEVEL_ZERO) {
+            return 0.1d;
+        } else if (type == QueryType.FOCUS_LEVEL_ONE) {
+            return 0.2d;
+        }
+        return 0.3d;
+    }
+
+    /**
+     * @return the chance a click on the query converts at the discount
+     */
+    private double convert(int q, double discount) {
+        double p = focusEffects[q] * discount;
+        return componentShares[q] * AuctionKernel.eta(p, 1d + componentBonus) + (1d - componentShares[q]) * p;
+    }
+
+    /**
+     * @param usedCapacity conversions in the distribution window, counting the day's so far
+     * @return the factor the conversion rate is cut by
+     */
+    public double getCapacityDiscount(int usedCapacity) {
+        int over = usedCapacity - capacity;
+        if (over <= 0) {
+            return 1d;
+        }
+        if (over < overuses) {
+            return discounts[over];
+        }
+        return Math.pow(discounter, over);
+    }
+
+    /**
+     * @return the chance a click on the query converts while under capacity
+     */
+    public double getConversionProbability(int queryOrdinal) {
+        return conversionProbabilities[queryOrdinal * overuses];
+    }
+
+    /**
+     * @param usedCapacity conversions in the distribution window, counting the day's so far
+     * @return the chance a click on the query converts
+     */
+    public double getConversionProbability(int queryOrdinal, int usedCapacity) {
+        int over = usedCapacity - capacity;
+        if (over <= 0) {
+            return conversionProbabilities[queryOrdinal * overuses];
+        }
+        if (over < overuses) {
+            return conversionProbabilities[queryOrdinal * overuses + over];
+        }
+        return convert(queryOrdinal, Math.pow(discounter, over));
+    }
+
+    /**
+     * @param adType {@link #GENERIC} or {@link #TARGETED}
+     * @return the chance a user who sees the ad in a regular slot clicks it
+     */
+    public double getClickProbability(int queryOrdinal, int adType) {
+        return clickProbabilities[queryOrdinal * AD_TYPES + adType];
+    }
+
+    /**
+     * @return the expected sales profit of a conversion on the query, with the manufacturer bonus
+     */
+    public double getRevenue(int queryOrdinal) {
+        return revenues[queryOrdinal];
+    }
+
+    /**
+     * @return the share of the query's users who want a product of our component specialty
+     */
+    public double getComponentShare(int queryOrdinal) {
+        return componentShares[queryOrdinal];
+    }
+
+    /**
+     * @return the number of capacity levels tabled past the capacity
+     */
+    public int getOveruseLevels() {
+        return overuses;
+    }
+
+    public int size() {
+        return queries;
+    }
+}
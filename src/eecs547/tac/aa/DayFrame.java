@@ -0,0 +1,218 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.Ad;
+import edu.umich.eecs.tac.props.QueryReport;
+import edu.umich.eecs.tac.props.SalesReport;
+import java.util.Arrays;
+
+/**
+ * One day of reports decoded into flat primitive columns indexed by query
+ * ordinal. Each report is walked once, looking every query up in the report
+ * a single time, and the models read the columns instead of going back to
+ * the report. The frame is reused from day to day so decoding does not
+ * allocate once the advertiser columns have grown to size.
+ *
+ * @author Augie
+ */
+public class DayFrame {
+
+    private static final int INITIAL_ADVERTISERS = 8;
+    private final QueryIndex queryIndex;
+    private final int queries;
+    // our own query report columns
+    private final int[] impressions, promotedImpressions, clicks;
+    private final double[] cost, cpc, position;
+    private final Ad[] ads;
+    // every advertiser's entries, [query][entry]
+    private final int[] advertiserCounts;
+    private int stride = INITIAL_ADVERTISERS;
+    private String[] advertisers;
+    private double[] advertiserPositions;
+    private Ad[] advertiserAds;
+    // sales report columns
+    private final int[] conversions;
+    private final double[] revenue;
+    private int totalImpressions = 0, totalConversions = 0;
+    private double totalCost = 0d, totalRevenue = 0d;
+
+    public DayFrame(QueryIndex queryIndex) {
+        this.queryIndex = queryIndex;
+        this.queries = queryIndex.size();
+        impressions = new int[queries];
+        promotedImpressions = new int[queries];
+        clicks = new int[queries];
+        cost = new double[queries];
+        cpc = new double[queries];
+        position = new double[queries];
+        ads = new Ad[queries];
+        advertiserCounts = new int[queries];
+        advertisers = new String[queries * stride];
+        advertiserPositions = new double[queries * stride];
+        advertiserAds = new Ad[queries * stride];
+        conversions = new int[queries];
+        revenue = new double[queries];
+    }
+
+    public QueryIndex getQueryIndex() {
+        return queryIndex;
+    }
+
+    private void growAdvertisers(int newStride) {
+        String[] newAdvertisers = new String[queries * newStride];
+        double[] newPositions = new double[queries * newStride];
+        Ad[] newAds = new Ad[queries * newStride];
+        for (int q = 0; q < queries; q++) {
+            System.arraycopy(advertisers, q * stride, newAdvertisers, q * newStride, advertiserCounts[q]);
+            System.arraycopy(advertiserPositions, q * stride, newPositions, q * newStride, advertiserCounts[q]);
+            System.arraycopy(advertiserAds, q * stride, newAds, q * newStride, advertiserCounts[q]);
+        }
+        advertisers = newAdvertisers;
+        advertiserPositions = newPositions;
+        advertiserAds = newAds;
+        stride = newStride;
+    }
+
+    /**
+     * Decodes the query report half of the day.
+     * @param queryReport the daily query report
+     */
+    public void decode(QueryReport queryReport) {
+        totalImpressions = 0;
+        totalCost = 0d;
+        Arrays.fill(advertiserCounts, 0);
+        Arrays.fill(advertisers, null);
+        Arrays.fill(advertiserAds, null);
+        for (int q = 0; q < queries; q++) {
+            int r = queryReport.indexForEntry(queryIndex.get(q));
+            if (r < 0) {
+                impressions[q] = 0;
+                promotedImpressions[q] = 0;
+                clicks[q] = 0;
+                cost[q] = 0d;
+                cpc[q] = Double.NaN;
+                position[q] = Double.NaN;
+                ads[q] = null;
+                continue;
+            }
+            impressions[q] = queryReport.getImpressions(r);
+            promotedImpressions[q] = queryReport.getPromotedImpressions(r);
+            clicks[q] = queryReport.getClicks(r);
+            cost[q] = queryReport.getCost(r);
+            cpc[q] = queryReport.getCPC(r);
+            position[q] = queryReport.getPosition(r);
+            ads[q] = queryReport.getAd(r);
+            totalImpressions += impressions[q];
+            totalCost += cost[q];
+            for (String advertiser : queryReport.advertisers(r)) {
+                if (advertiserCounts[q] == stride) {
+                    growAdvertisers(stride * 2);
+                }
+                int e = q * stride + advertiserCounts[q]++;
+                advertisers[e] = advertiser;
+                advertiserPositions[e] = queryReport.getPosition(r, advertiser);
+                advertiserAds[e] = queryReport.getAd(r, advertiser);
+            }
+        }
+    }
+
+    /**
+     * Decodes the sales report half of the day.
+     * @param salesReport the daily sales report
+     */
+    public void decode(SalesReport salesReport) {
+        totalConversions = 0;
+        totalRevenue = 0d;
+        for (int q = 0; q < queries; q++) {
+            int r = salesReport.indexForEntry(queryIndex.get(q));
+            if (r < 0) {
+                conversions[q] = 0;
+                revenue[q] = 0d;
+                continue;
+            }
+            conversions[q] = salesReport.getConversions(r);
+            revenue[q] = salesReport.getRevenue(r);
+            totalConversions += conversions[q];
+            totalRevenue += revenue[q];
+        }
+    }
+
+    public int getImpressions(int queryOrdinal) {
+        return impressions[queryOrdinal];
+    }
+
+    public int getPromotedImpressions(int queryOrdinal) {
+        return promotedImpressions[queryOrdinal];
+    }
+
+    public int getClicks(int queryOrdinal) {
+        return clicks[queryOrdinal];
+    }
+
+    public double getCost(int queryOrdinal) {
+        return cost[queryOrdinal];
+    }
+
+    /**
+     * @return the cost per click, NaN if there were no clicks
+     */
+    public double getCPC(int queryOrdinal) {
+        return cpc[queryOrdinal];
+    }
+
+    /**
+     * @return our average position, NaN if we were not shown
+     */
+    public double getPosition(int queryOrdinal) {
+        return position[queryOrdinal];
+    }
+
+    public Ad getAd(int queryOrdinal) {
+        return ads[queryOrdinal];
+    }
+
+    /**
+     * @return the number of advertisers reported in the query's auction
+     */
+    public int getAdvertiserCount(int queryOrdinal) {
+        return advertiserCounts[queryOrdinal];
+    }
+
+    /**
+     * @param entry 0 to {@link #getAdvertiserCount(int)} - 1
+     */
+    public String getAdvertiser(int queryOrdinal, int entry) {
+        return advertisers[queryOrdinal * stride + entry];
+    }
+
+    public double getAdvertiserPosition(int queryOrdinal, int entry) {
+        return advertiserPositions[queryOrdinal * stride + entry];
+    }
+
+    public Ad getAdvertiserAd(int queryOrdinal, int entry) {
+        return advertiserAds[queryOrdinal * stride + entry];
+    }
+
+    public int getConversions(int queryOrdinal) {
+        return conversions[queryOrdinal];
+    }
+
+    public double getRevenue(int queryOrdinal) {
+        return revenue[queryOrdinal];
+    }
+
+    public int getTotalImpressions() {
+        return totalImpressions;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    public int getTotalConversions() {
+        return totalConversions;
+    }
+
+    public double getTotalRevenue() {
+        return totalRevenue;
+    }
+}
@@ -0,0 +1,83 @@
+package eecs547.tac.aa;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Fixed-capacity ring buffer of daily double values. The newest value is
+ * added with {@link #addFirst(double)} and read back with {@link #get(int)}
+ * as "value N days ago" in constant time and without boxing. Once the buffer
+ * is full the oldest value is overwritten.
+ *
+ * @author Augie
+ */
+public class DoubleTimeSeries {
+
+    /**
+     * A TAC AA game is 60 days, so by default the whole game fits.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+    private final double[] values;
+    private int head = 0, size = 0;
+
+    public DoubleTimeSeries() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DoubleTimeSeries(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        values = new double[capacity];
+    }
+
+    /**
+     * Adds the value for the newest day.
+     * @param value the value
+     */
+    public void addFirst(double value) {
+        head = head == 0 ? values.length - 1 : head - 1;
+        values[head] = value;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    /**
+     * @param daysAgo 0 for the newest value
+     * @return the value recorded the given number of days ago
+     */
+    public double get(int daysAgo) {
+        if (daysAgo < 0 || daysAgo >= size) {
+            throw new IndexOutOfBoundsException("Index: " + daysAgo + ", Size: " + size);
+        }
+        int i = head + daysAgo;
+        if (i >= values.length) {
+            i -= values.length;
+        }
+        return values[i];
+    }
+
+    public double getFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return values[head];
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,17 @@
+package eecs547.tac.aa;
+
+/**
+ * An agent that shows graphs during a game and saves them at the end.
+ * Offline games turn them off per agent, so no windows open and no
+ * snapshots are written over each other, without changing what the rest
+ * of the JVM does.
+ *
+ * @author Augie
+ */
+public interface GraphingAgent {
+
+    /**
+     * @param graphs whether to show and save the graphs, as far as {@link Util#isGraphsEnabled()} allows
+     */
+    void setGraphs(boolean graphs);
+}
@@ -0,0 +1,112 @@
+package eecs547.tac.aa;
+
+/**
+ * Level and trend (Holt) smoothing of a daily count for every query ordinal.
+ * Each observation updates the query's estimate in constant time and the
+ * one-day forecasts, along with their total, are worked out once per day so
+ * reading them while sorting costs nothing.
+ *
+ * @author Augie
+ */
+public class ImpressionForecaster {
+
+    private final double levelSmoothing, trendSmoothing;
+    private final double[] level, trend;
+    private final int[] observations, forecasts;
+    private int totalForecast = 0;
+
+    /**
+     * @param size number of queries
+     * @param levelSmoothing weight of the newest observation in the level, in (0, 1]
+     * @param trendSmoothing weight of the newest change in the trend, in [0, 1]
+     */
+    public ImpressionForecaster(int size, double levelSmoothing, double trendSmoothing) {
+        if (!(levelSmoothing > 0 && levelSmoothing <= 1)) {
+            throw new IllegalArgumentException("level smoothing must be in (0, 1]: " + levelSmoothing);
+        }
+        if (!(trendSmoothing >= 0 && trendSmoothing <= 1)) {
+            throw new IllegalArgumentException("trend smoothing must be in [0, 1]: " + trendSmoothing);
+        }
+        this.levelSmoothing = levelSmoothing;
+        this.trendSmoothing = trendSmoothing;
+        level = new double[size];
+        trend = new double[size];
+        observations = new int[size];
+        forecasts = new int[size];
+    }
+
+    public int size() {
+        return level.length;
+    }
+
+    /**
+     * Adds one day's count for a query. Call {@link #commit()} once every
+     * query has been observed to refresh the forecasts.
+     */
+    public void observe(int queryOrdinal, double count) {
+        int i = queryOrdinal;
+        if (observations[i] == 0) {
+            level[i] = count;
+            trend[i] = 0d;
+        } else {
+            double previous = level[i];
+            level[i] = levelSmoothing * count + (1d - levelSmoothing) * (previous + trend[i]);
+            trend[i] = trendSmoothing * (level[i] - previous) + (1d - trendSmoothing) * trend[i];
+        }
+        observations[i]++;
+    }
+
+    /**
+     * Recomputes the cached one-day forecasts and their total.
+     */
+    public void commit() {
+        int t = 0;
+        for (int i = 0; i < level.length; i++) {
+            forecasts[i] = observations[i] == 0 ? 0 : (int) Math.max(0L, Math.round(level[i] + trend[i]));
+            t += forecasts[i];
+        }
+        totalForecast = t;
+    }
+
+    /**
+     * @return tomorrow's count as of the last {@link #commit()}, 0 before any observation
+     */
+    public int getForecast(int queryOrdinal) {
+        return forecasts[queryOrdinal];
+    }
+
+    /**
+     * @return the forecast count a number of days ahead, never negative
+     */
+    public double getForecast(int queryOrdinal, int daysAhead) {
+        if (observations[queryOrdinal] == 0) {
+            return 0d;
+        }
+        return Math.max(0d, level[queryOrdinal] + daysAhead * trend[queryOrdinal]);
+    }
+
+    /**
+     * @return the sum of every query's forecast as of the last {@link #commit()}
+     */
+    public int getTotalForecast() {
+        return totalForecast;
+    }
+
+    public double getLevel(int queryOrdinal) {
+        return level[queryOrdinal];
+    }
+
+    public double getTrend(int queryOrdinal) {
+        return trend[queryOrdinal];
+    }
+
+    public void clear() {
+        for (int i = 0; i < level.length; i++) {
+            level[i] = 0d;
+            trend[i] = 0d;
+            observations[i] = 0;
+            forecasts[i] = 0;
+        }
+        totalForecast = 0;
+    }
+}
@@ -0,0 +1,76 @@
+package eecs547.tac.aa;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Fixed-capacity ring buffer of daily int values. See {@link DoubleTimeSeries}.
+ *
+ * @author Augie
+ */
+public class IntTimeSeries {
+
+    private final int[] values;
+    private int head = 0, size = 0;
+
+    public IntTimeSeries() {
+        this(DoubleTimeSeries.DEFAULT_CAPACITY);
+    }
+
+    public IntTimeSeries(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        values = new int[capacity];
+    }
+
+    /**
+     * Adds the value for the newest day.
+     * @param value the value
+     */
+    public void addFirst(int value) {
+        head = head == 0 ? values.length - 1 : head - 1;
+        values[head] = value;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    /**
+     * @param daysAgo 0 for the newest value
+     * @return the value recorded the given number of days ago
+     */
+    public int get(int daysAgo) {
+        if (daysAgo < 0 || daysAgo >= size) {
+            throw new IndexOutOfBoundsException("Index: " + daysAgo + ", Size: " + size);
+        }
+        int i = head + daysAgo;
+        if (i >= values.length) {
+            i -= values.length;
+        }
+        return values[i];
+    }
+
+    public int getFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return values[head];
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
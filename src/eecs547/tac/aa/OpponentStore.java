@@ -0,0 +1,336 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.Ad;
+import edu.umich.eecs.tac.props.QueryType;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Column store of what every advertiser did in every auction. Positions and
+ * ad types are indexed by (opponent, query, day) and kept in primitive
+ * arrays, day-major so one query report fills one contiguous slab and
+ * cross-opponent questions ("who held slot 1 on the F2 queries yesterday")
+ * are plain array scans. Only a fixed window of days is kept, so memory does
+ * not grow with the length of the game; ad counts, last known positions and
+ * the exponentially smoothed position and targeting estimates cover the
+ * whole game and are updated in constant time per auction.
+ *
+ * @author Augie
+ */
+public class OpponentStore {
+
+    public static final byte AD_NONE = 0, AD_GENERIC = 1, AD_TARGETED = 2;
+    /**
+     * Weight of the newest observation in the smoothed estimates.
+     */
+    public static final double DEFAULT_SMOOTHING = 0.3;
+    private static final int INITIAL_OPPONENTS = 8;
+    private final QueryIndex queryIndex;
+    private final int queries, days;
+    private final double smoothing;
+    private final HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+    private String[] names = new String[INITIAL_OPPONENTS];
+    private int opponents = 0, capacity = INITIAL_OPPONENTS;
+    /**
+     * [day][opponent][query], day counted from head as days ago
+     */
+    private double[] positions;
+    private byte[] adTypes;
+    /**
+     * [opponent][query], over the whole game
+     */
+    private int[] genericAds, targetedAds, windowCounts;
+    private double[] lastPositions, smoothedPositions, smoothedTargeted, windowSums;
+    private int head = 0, recorded = 0;
+
+    public OpponentStore(QueryIndex queryIndex) {
+        this(queryIndex, DoubleTimeSeries.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param days number of days of positions and ad types kept
+     */
+    public OpponentStore(QueryIndex queryIndex, int days) {
+        this(queryIndex, days, DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * @param days number of days of positions and ad types kept
+     * @param smoothing weight of the newest observation in the smoothed estimates, in (0, 1]
+     */
+    public OpponentStore(QueryIndex queryIndex, int days, double smoothing) {
+        if (days < 1) {
+            throw new IllegalArgumentException("days must be positive: " + days);
+        }
+        if (!(smoothing > 0 && smoothing <= 1)) {
+            throw new IllegalArgumentException("smoothing must be in (0, 1]: " + smoothing);
+        }
+        this.queryIndex = queryIndex;
+        this.queries = queryIndex.size();
+        this.days = days;
+        this.smoothing = smoothing;
+        positions = new double[days * capacity * queries];
+        adTypes = new byte[days * capacity * queries];
+        genericAds = new int[capacity * queries];
+        targetedAds = new int[capacity * queries];
+        lastPositions = new double[capacity * queries];
+        smoothedPositions = new double[capacity * queries];
+        smoothedTargeted = new double[capacity * queries];
+        windowSums = new double[capacity * queries];
+        windowCounts = new int[capacity * queries];
+        Arrays.fill(positions, Double.NaN);
+        Arrays.fill(lastPositions, Double.NaN);
+        Arrays.fill(smoothedPositions, Double.NaN);
+        Arrays.fill(smoothedTargeted, Double.NaN);
+    }
+
+    /**
+     * @param name the advertiser
+     * @return the ordinal of the advertiser, or -1 if it has not been seen
+     */
+    public int indexOf(String name) {
+        Integer o = ordinals.get(name);
+        if (o == null) {
+            return -1;
+        }
+        return o;
+    }
+
+    public String getName(int opponent) {
+        return names[opponent];
+    }
+
+    /**
+     * @return number of advertisers seen so far
+     */
+    public int size() {
+        return opponents;
+    }
+
+    /**
+     * @return number of query reports recorded
+     */
+    public int getDays() {
+        return recorded;
+    }
+
+    private int add(String name) {
+        if (opponents == capacity) {
+            grow(capacity * 2);
+        }
+        names[opponents] = name;
+        ordinals.put(name, opponents);
+        return opponents++;
+    }
+
+    /**
+     * Re-lays out every column for a larger number of opponents.
+     */
+    private void grow(int newCapacity) {
+        double[] newPositions = new double[days * newCapacity * queries];
+        byte[] newAdTypes = new byte[days * newCapacity * queries];
+        Arrays.fill(newPositions, Double.NaN);
+        for (int d = 0; d < days; d++) {
+            System.arraycopy(positions, d * capacity * queries, newPositions, d * newCapacity * queries, capacity * queries);
+            System.arraycopy(adTypes, d * capacity * queries, newAdTypes, d * newCapacity * queries, capacity * queries);
+        }
+        positions = newPositions;
+        adTypes = newAdTypes;
+        genericAds = Arrays.copyOf(genericAds, newCapacity * queries);
+        targetedAds = Arrays.copyOf(targetedAds, newCapacity * queries);
+        windowSums = Arrays.copyOf(windowSums, newCapacity * queries);
+        windowCounts = Arrays.copyOf(windowCounts, newCapacity * queries);
+        lastPositions = copyOfNaN(lastPositions, newCapacity * queries);
+        smoothedPositions = copyOfNaN(smoothedPositions, newCapacity * queries);
+        smoothedTargeted = copyOfNaN(smoothedTargeted, newCapacity * queries);
+        names = Arrays.copyOf(names, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private static double[] copyOfNaN(double[] original, int newLength) {
+        double[] copy = Arrays.copyOf(original, newLength);
+        Arrays.fill(copy, original.length, newLength, Double.NaN);
+        return copy;
+    }
+
+    private int slab(int daysAgo) {
+        int d = head + daysAgo;
+        if (d >= days) {
+            d -= days;
+        }
+        return d * capacity * queries;
+    }
+
+    /**
+     * Records one day of auctions.
+     * @param frame the day's decoded query report
+     */
+    public void handleQueryReport(DayFrame frame) {
+        // start a new day
+        head = head == 0 ? days - 1 : head - 1;
+        if (recorded < days) {
+            recorded++;
+        }
+        int start = slab(0);
+        // the oldest day leaves the window
+        for (int cell = 0; cell < opponents * queries; cell++) {
+            double p = positions[start + cell];
+            if (!Double.isNaN(p)) {
+                windowSums[cell] -= p;
+                windowCounts[cell]--;
+            }
+        }
+        Arrays.fill(positions, start, start + capacity * queries, Double.NaN);
+        Arrays.fill(adTypes, start, start + capacity * queries, AD_NONE);
+        for (int q = 0; q < queries; q++) {
+            for (int e = 0; e < frame.getAdvertiserCount(q); e++) {
+                String advertiser = frame.getAdvertiser(q, e);
+                int o = indexOf(advertiser);
+                if (o < 0) {
+                    o = add(advertiser);
+                    start = slab(0);
+                }
+                int cell = o * queries + q;
+                Ad ad = frame.getAdvertiserAd(q, e);
+                double position = frame.getAdvertiserPosition(q, e);
+                if (ad != null && ad.isGeneric()) {
+                    genericAds[cell]++;
+                    adTypes[start + cell] = AD_GENERIC;
+                    smoothedTargeted[cell] = smooth(smoothedTargeted[cell], 0d);
+                } else {
+                    targetedAds[cell]++;
+                    adTypes[start + cell] = ad == null ? AD_NONE : AD_TARGETED;
+                    if (ad != null) {
+                        smoothedTargeted[cell] = smooth(smoothedTargeted[cell], 1d);
+                    }
+                }
+                positions[start + cell] = position;
+                lastPositions[cell] = position;
+                if (!Double.isNaN(position)) {
+                    smoothedPositions[cell] = smooth(smoothedPositions[cell], position);
+                    windowSums[cell] += position;
+                    windowCounts[cell]++;
+                }
+            }
+        }
+    }
+
+    private double smooth(double estimate, double observation) {
+        if (Double.isNaN(estimate)) {
+            return observation;
+        }
+        return estimate + smoothing * (observation - estimate);
+    }
+
+    /**
+     * @return the average position, NaN if the opponent was not in the auction that day
+     */
+    public double getPosition(int opponent, int queryOrdinal, int daysAgo) {
+        if (daysAgo >= recorded) {
+            return Double.NaN;
+        }
+        return positions[slab(daysAgo) + opponent * queries + queryOrdinal];
+    }
+
+    /**
+     * @return one of {@link #AD_NONE}, {@link #AD_GENERIC} or {@link #AD_TARGETED}
+     */
+    public byte getAdType(int opponent, int queryOrdinal, int daysAgo) {
+        if (daysAgo >= recorded) {
+            return AD_NONE;
+        }
+        return adTypes[slab(daysAgo) + opponent * queries + queryOrdinal];
+    }
+
+    /**
+     * @return the most recently reported position, NaN if never reported or not shown last time
+     */
+    public double getLastPosition(int opponent, int queryOrdinal) {
+        return lastPositions[opponent * queries + queryOrdinal];
+    }
+
+    /**
+     * @return the exponentially smoothed position, NaN if never reported
+     */
+    public double getSmoothedPosition(int opponent, int queryOrdinal) {
+        return smoothedPositions[opponent * queries + queryOrdinal];
+    }
+
+    /**
+     * @return the mean position over the days kept, NaN if not shown in any of them
+     */
+    public double getWindowPosition(int opponent, int queryOrdinal) {
+        int cell = opponent * queries + queryOrdinal;
+        if (windowCounts[cell] == 0) {
+            return Double.NaN;
+        }
+        return windowSums[cell] / windowCounts[cell];
+    }
+
+    /**
+     * @return the exponentially smoothed chance that the next ad is targeted, NaN if no ads seen
+     */
+    public double getSmoothedTargeted(int opponent, int queryOrdinal) {
+        return smoothedTargeted[opponent * queries + queryOrdinal];
+    }
+
+    public int getGenericAds(int opponent, int queryOrdinal) {
+        return genericAds[opponent * queries + queryOrdinal];
+    }
+
+    public int getTargetedAds(int opponent, int queryOrdinal) {
+        return targetedAds[opponent * queries + queryOrdinal];
+    }
+
+    /**
+     * @return the fraction of reported ads that were targeted, 0 if none
+     */
+    public double prTargeted(int opponent, int queryOrdinal) {
+        int cell = opponent * queries + queryOrdinal;
+        if (genericAds[cell] + targetedAds[cell] == 0) {
+            return 0;
+        }
+        return (double) targetedAds[cell] / (double) (genericAds[cell] + targetedAds[cell]);
+    }
+
+    /**
+     * @return the opponent whose average position rounds to the slot, -1 if none
+     */
+    public int getOpponentInSlot(int queryOrdinal, int slot, int daysAgo) {
+        if (daysAgo >= recorded) {
+            return -1;
+        }
+        int start = slab(daysAgo) + queryOrdinal;
+        for (int o = 0; o < opponents; o++) {
+            double p = positions[start + o * queries];
+            if (p >= slot - 0.5 && p < slot + 0.5) {
+                return o;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Counts, for every opponent, the queries of the given type on which it held the slot.
+     * @param counts filled with one count per opponent, must hold at least {@link #size()} entries
+     */
+    public void countSlotHolders(QueryType type, int slot, int daysAgo, int[] counts) {
+        Arrays.fill(counts, 0, opponents, 0);
+        if (daysAgo >= recorded) {
+            return;
+        }
+        int start = slab(daysAgo);
+        double low = slot - 0.5, high = slot + 0.5;
+        for (int o = 0; o < opponents; o++) {
+            int row = start + o * queries;
+            int c = 0;
+            for (int q = 0; q < queries; q++) {
+                double p = positions[row + q];
+                if (p >= low && p < high && queryIndex.getType(q) == type) {
+                    c++;
+                }
+            }
+            counts[o] = c;
+        }
+    }
+}
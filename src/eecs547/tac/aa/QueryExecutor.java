@@ -0,0 +1,147 @@
+package eecs547.tac.aa;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a task once for every query ordinal in a range, spread over a fixed
+ * number of threads. Workers take the next ordinal from a shared counter,
+ * so a slow query does not hold up the others, and the calling thread works
+ * alongside them. With a parallelism of 1 everything runs in the calling
+ * thread in ordinal order and no threads are started.
+ * <p>
+ * Tasks must only write state belonging to their own ordinal, e.g. their
+ * slot in a {@link BidVector}; then the result is the same as a serial run
+ * whatever order the ordinals finish in.
+ *
+ * @author Augie
+ */
+public class QueryExecutor {
+
+    /**
+     * Parallelism used when none is given, from the
+     * <code>eecs547.tac.aa.parallelism</code> system property, default 1.
+     */
+    public static final int DEFAULT_PARALLELISM = Math.max(1, Integer.getInteger("eecs547.tac.aa.parallelism", 1));
+
+    /**
+     * Work for one query.
+     */
+    public interface Task {
+
+        public void run(int queryOrdinal);
+    }
+    private final int parallelism;
+    private ExecutorService pool;
+
+    public QueryExecutor() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism number of threads to work on, including the caller
+     */
+    public QueryExecutor(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    private ExecutorService getPool() {
+        if (pool == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(parallelism - 1, new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "query-worker-" + threads.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the task for every ordinal from <code>from</code> up to but not
+     * including <code>to</code> and waits for all of them.
+     * @throws RuntimeException if a task failed, wrapping the first failure if it was checked
+     */
+    public void run(int from, final int to, final Task task) {
+        if (parallelism == 1 || to - from <= 1) {
+            for (int i = from; i < to; i++) {
+                task.run(i);
+            }
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger(from);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        int helpers = Math.min(parallelism, to - from) - 1;
+        final CountDownLatch done = new CountDownLatch(helpers);
+        Runnable worker = new Runnable() {
+
+            public void run() {
+                try {
+                    drain(next, to, task, failure);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        for (int i = 0; i < helpers; i++) {
+            getPool().execute(worker);
+        }
+        drain(next, to, task, failure);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private static void drain(AtomicInteger next, int to, Task task, AtomicReference<Throwable> failure) {
+        int i;
+        while (failure.get() == null && (i = next.getAndIncrement()) < to) {
+            try {
+                task.run(i);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads. The executor can still be used; it starts
+     * new threads if needed.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.AdvertiserInfo;
+import edu.umich.eecs.tac.props.Product;
+import edu.umich.eecs.tac.props.Query;
+import edu.umich.eecs.tac.props.QueryType;
+import edu.umich.eecs.tac.props.RetailCatalog;
+import java.util.HashMap;
+
+/**
+ * Maps every query in the query space to a dense ordinal so per-query state
+ * can be kept in arrays. The query type, specialization flag and average
+ * sales profit of each query are computed once when the index is built.
+ *
+ * @author Augie
+ */
+public class QueryIndex {
+
+    private final Query[] queries;
+    private final QueryType[] types;
+    private final boolean[] specialization;
+    private final double[] avgProfit;
+    private final HashMap<Query, Integer> ordinals = new HashMap<Query, Integer>();
+    private int specializationIndex = -1;
+
+    public QueryIndex(Iterable<Query> querySpace) {
+        this(querySpace, null);
+    }
+
+    public QueryIndex(Iterable<Query> querySpace, RetailCatalog retailCatalog) {
+        for (Query q : querySpace) {
+            if (!ordinals.containsKey(q)) {
+                ordinals.put(q, ordinals.size());
+            }
+        }
+        queries = new Query[ordinals.size()];
+        types = new QueryType[queries.length];
+        specialization = new boolean[queries.length];
+        avgProfit = new double[queries.length];
+        for (Query q : ordinals.keySet()) {
+            int i = ordinals.get(q);
+            queries[i] = q;
+            types[i] = q.getType();
+            if (retailCatalog != null) {
+                avgProfit[i] = getAverageSalesProfit(retailCatalog, q.getComponent(), q.getManufacturer());
+            }
+        }
+    }
+
+    /*
+     * Returns the average sales profit over all products matching the component and manufacturer
+     */
+    public static double getAverageSalesProfit(RetailCatalog retailCatalog, String component, String manufacturer) {
+        double t = 0d, c = 0d;
+        for (Product p : retailCatalog.keys()) {
+            if ((component == null || component.equals(p.getComponent())) && (manufacturer == null || manufacturer.equals(p.getManufacturer()))) {
+                t += retailCatalog.getSalesProfit(p);
+                c++;
+            }
+        }
+        return t / c;
+    }
+
+    /**
+     * Marks the query matching the advertiser's manufacturer and component specialty.
+     * @param advertiserInfo the advertiser information
+     */
+    public void setSpecialty(AdvertiserInfo advertiserInfo) {
+        specializationIndex = -1;
+        for (int i = 0; i < queries.length; i++) {
+            specialization[i] = queries[i].getManufacturer() != null && queries[i].getManufacturer().equals(advertiserInfo.getManufacturerSpecialty())
+                    && queries[i].getComponent() != null && queries[i].getComponent().equals(advertiserInfo.getComponentSpecialty());
+            if (specialization[i] && specializationIndex < 0) {
+                specializationIndex = i;
+            }
+        }
+    }
+
+    public int size() {
+        return queries.length;
+    }
+
+    public Query get(int i) {
+        return queries[i];
+    }
+
+    /**
+     * @param q the query
+     * @return the ordinal of the query, or -1 if it is not in the query space
+     */
+    public int indexOf(Query q) {
+        Integer i = ordinals.get(q);
+        if (i == null) {
+            return -1;
+        }
+        return i;
+    }
+
+    public QueryType getType(int i) {
+        return types[i];
+    }
+
+    public boolean isSpecialization(int i) {
+        return specialization[i];
+    }
+
+    /**
+     * @return the ordinal of the specialization query, or -1 if not known yet
+     */
+    public int getSpecializationIndex() {
+        return specializationIndex;
+    }
+
+    public double getAverageProfit(int i) {
+        return avgProfit[i];
+    }
+}
@@ -0,0 +1,105 @@
+package eecs547.tac.aa;
+
+/**
+ * Incrementally maintained statistics over a stream of daily values: sum,
+ * count, nonzero count, max and the mean of the most recent days. Every
+ * {@link #add(double)} and every read is constant time.
+ *
+ * @author Augie
+ */
+public class RunningStats {
+
+    private final double[] window;
+    private int windowHead = 0, windowSize = 0, count = 0, nonZeroCount = 0;
+    private double sum = 0d, windowSum = 0d, max = Double.NEGATIVE_INFINITY;
+
+    public RunningStats() {
+        this(1);
+    }
+
+    /**
+     * @param windowLength number of most recent days covered by {@link #getWindowMean()}
+     */
+    public RunningStats(int windowLength) {
+        if (windowLength < 1) {
+            throw new IllegalArgumentException("window length must be positive: " + windowLength);
+        }
+        window = new double[windowLength];
+    }
+
+    public void add(double value) {
+        sum += value;
+        count++;
+        if (value != 0d) {
+            nonZeroCount++;
+        }
+        if (value > max) {
+            max = value;
+        }
+        // slide the window
+        if (windowSize == window.length) {
+            windowSum -= window[windowHead];
+        } else {
+            windowSize++;
+        }
+        window[windowHead] = value;
+        windowSum += value;
+        windowHead = (windowHead + 1) % window.length;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getNonZeroCount() {
+        return nonZeroCount;
+    }
+
+    /**
+     * @return the largest value added, or negative infinity if none
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of all values, or 0 if none
+     */
+    public double getMean() {
+        if (count == 0) {
+            return 0;
+        }
+        return sum / count;
+    }
+
+    /**
+     * @return the mean of the nonzero values, NaN if none
+     */
+    public double getNonZeroMean() {
+        return sum / nonZeroCount;
+    }
+
+    /**
+     * @return the mean of the most recent values, or 0 if none
+     */
+    public double getWindowMean() {
+        if (windowSize == 0) {
+            return 0;
+        }
+        return windowSum / windowSize;
+    }
+
+    public void clear() {
+        windowHead = 0;
+        windowSize = 0;
+        count = 0;
+        nonZeroCount = 0;
+        sum = 0d;
+        windowSum = 0d;
+        max = Double.NEGATIVE_INFINITY;
+    }
+}
@@ -0,0 +1,356 @@
+package eecs547.tac.aa;
+
+import edu.umich.eecs.tac.props.Query;
+import edu.umich.eecs.tac.props.QueryType;
+
+/**
+ * Particle filter over the searching state of each product's users. Every
+ * particle is a guess at how many of the product's users are non-searching,
+ * informational searchers, searching at focus level 0, 1 or 2, or have
+ * transacted. Each day the particles are weighted by how well they explain
+ * the impressions on the product's F2 query, resampled when the weights
+ * have degenerated, moved to the states our conversions show and then
+ * stepped through the game's state transitions with sampling noise and the
+ * occasional burst of new searchers.
+ * <p>
+ * Particles live in one primitive array, [product][particle][state].
+ * Products are filtered independently, each with its own xorshift random
+ * number generator, so they can run on a {@link QueryExecutor} and still
+ * give the same answer as a serial run; sampling noise is drawn from a sum
+ * of uniforms rather than {@link java.util.Random#nextGaussian()}, which
+ * is several times slower and synchronized.
+ * <p>
+ * Only F2 impressions are used to weight the particles, since F0 and F1
+ * queries mix products, and only when we were shown, since impressions
+ * only count searches that saw our ad.
+ *
+ * @author Augie
+ */
+public class UserParticleFilter {
+
+    public static final int NON_SEARCHING = 0, INFORMATIONAL = 1, FOCUS_ZERO = 2, FOCUS_ONE = 3, FOCUS_TWO = 4, TRANSACTED = 5, STATES = 6;
+    public static final int DEFAULT_PARTICLES = 200, DEFAULT_POPULATION = 10000;
+    /**
+     * Chance of a burst of non-searching users starting to search, and the
+     * chance of starting to search during one.
+     */
+    private static final double BURST_PROBABILITY = 0.1, BURST_SEARCH = 0.2, SEARCH = 0.01;
+    /**
+     * Days the filter is run blind before the first report so the particles start spread out.
+     */
+    private static final int VIRTUAL_DAYS = 5;
+    /**
+     * Transition probabilities between states, rows from, columns to; the
+     * non-searching row is set per day to allow for bursts.
+     */
+    private static final double[][] TRANSITIONS = {
+        {1d - SEARCH, SEARCH, 0d, 0d, 0d, 0d},
+        {0.05, 0.2, 0.6, 0.1, 0.05, 0d},
+        {0.1, 0d, 0.7, 0.2, 0d, 0d},
+        {0.1, 0d, 0d, 0.7, 0.2, 0d},
+        {0.1, 0d, 0d, 0d, 0.9, 0d},
+        {0.2, 0d, 0d, 0d, 0d, 0.8}
+    };
+    private final QueryIndex queryIndex;
+    private final int products, particles, population;
+    // per product, the queries its users search
+    private final int[] f2Queries, manufacturerQueries, componentQueries;
+    // products sharing each product's F1 queries
+    private final int[] manufacturerProducts, componentProducts;
+    private final int f0Query;
+    private final double[] states, weights, scratch, means;
+    private final long[] randoms;
+    private QueryExecutor executor = new QueryExecutor(1);
+    private DayFrame frame;
+    private final QueryExecutor.Task stepper = new QueryExecutor.Task() {
+
+        public void run(int product) {
+            step(product);
+        }
+    };
+
+    public UserParticleFilter(QueryIndex queryIndex) {
+        this(queryIndex, DEFAULT_PARTICLES, DEFAULT_POPULATION, 0L);
+    }
+
+    /**
+     * @param particles particles per product
+     * @param population users per product
+     * @param seed seed of the random numbers, so runs can be repeated
+     */
+    public UserParticleFilter(QueryIndex queryIndex, int particles, int population, long seed) {
+        this.queryIndex = queryIndex;
+        this.particles = particles;
+        this.population = population;
+        int n = 0, f0 = -1;
+        for (int i = 0; i < queryIndex.size(); i++) {
+            if (queryIndex.getType(i) == QueryType.FOCUS_LEVEL_TWO) {
+                n++;
+            } else if (queryIndex.getType(i) == QueryType.FOCUS_LEVEL_ZERO) {
+                f0 = i;
+            }
+        }
+        products = n;
+        f0Query = f0;
+        f2Queries = new int[products];
+        manufacturerQueries = new int[products];
+        componentQueries = new int[products];
+        manufacturerProducts = new int[products];
+        componentProducts = new int[products];
+        for (int i = 0, p = 0; i < queryIndex.size(); i++) {
+            if (queryIndex.getType(i) == QueryType.FOCUS_LEVEL_TWO) {
+                Query q = queryIndex.get(i);
+                f2Queries[p] = i;
+                manufacturerQueries[p] = queryIndex.indexOf(new Query(q.getManufacturer(), null));
+                componentQueries[p] = queryIndex.indexOf(new Query(null, q.getComponent()));
+                p++;
+            }
+        }
+        for (int p = 0; p < products; p++) {
+            for (int o = 0; o < products; o++) {
+                if (manufacturerQueries[o] == manufacturerQueries[p]) {
+                    manufacturerProducts[p]++;
+                }
+                if (componentQueries[o] == componentQueries[p]) {
+                    componentProducts[p]++;
+                }
+            }
+        }
+        states = new double[products * particles * STATES];
+        weights = new double[products * particles];
+        scratch = new double[products * particles * STATES];
+        means = new double[products * STATES];
+        randoms = new long[products];
+        for (int p = 0; p < products; p++) {
+            randoms[p] = seed + 31 * p + 0x9E3779B97F4A7C15L;
+            if (randoms[p] == 0) {
+                randoms[p] = 1;
+            }
+            for (int k = 0; k < particles; k++) {
+                states[(p * particles + k) * STATES + NON_SEARCHING] = population;
+                weights[p * particles + k] = 1d / particles;
+            }
+            for (int d = 0; d < VIRTUAL_DAYS; d++) {
+                for (int k = 0; k < particles; k++) {
+                    transition(p, k);
+                }
+            }
+            updateMeans(p);
+        }
+    }
+
+    public void setExecutor(QueryExecutor executor) {
+        this.executor = executor;
+    }
+
+    public int getProducts() {
+        return products;
+    }
+
+    /**
+     * @return the F2 query of the product
+     */
+    public int getProductQuery(int product) {
+        return f2Queries[product];
+    }
+
+    /**
+     * Filters one day.
+     * @param frame the day's query and sales reports
+     */
+    public void handleReports(DayFrame frame) {
+        this.frame = frame;
+        executor.run(0, products, stepper);
+        this.frame = null;
+    }
+
+    private void step(int p) {
+        int q = f2Queries[p];
+        if (!Double.isNaN(frame.getPosition(q)) && frame.getImpressions(q) > 0) {
+            weigh(p, frame.getImpressions(q));
+        }
+        // conversions on shared queries are split evenly between the products
+        double conversions = frame.getConversions(q) + share(manufacturerQueries[p], manufacturerProducts[p]) + share(componentQueries[p], componentProducts[p]) + share(f0Query, products);
+        for (int k = 0; k < particles; k++) {
+            convert(p, k, conversions);
+            transition(p, k);
+        }
+        updateMeans(p);
+    }
+
+    private double share(int queryOrdinal, int ways) {
+        if (queryOrdinal < 0 || ways <= 0) {
+            return 0d;
+        }
+        return (double) frame.getConversions(queryOrdinal) / ways;
+    }
+
+    /**
+     * @return searches of the product's F2 query a particle expects
+     */
+    private double f2Searches(int base) {
+        return states[base + FOCUS_TWO] + states[base + INFORMATIONAL] / 3d;
+    }
+
+    private void weigh(int p, int impressions) {
+        int first = p * particles;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < particles; k++) {
+            double expected = f2Searches((first + k) * STATES);
+            double variance = expected + 0.01 * expected * expected + 1d;
+            double d = impressions - expected;
+            // log weights until normalized
+            double w = Math.log(weights[first + k]) - d * d / (2d * variance);
+            weights[first + k] = w;
+            max = Math.max(max, w);
+        }
+        double sum = 0d, squares = 0d;
+        for (int k = 0; k < particles; k++) {
+            weights[first + k] = Math.exp(weights[first + k] - max);
+            sum += weights[first + k];
+        }
+        for (int k = 0; k < particles; k++) {
+            weights[first + k] /= sum;
+            squares += weights[first + k] * weights[first + k];
+        }
+        // resample once the effective sample size has halved
+        if (1d / squares < particles / 2d) {
+            resample(p);
+        }
+    }
+
+    /**
+     * Systematic resampling into the scratch array and back.
+     */
+    private void resample(int p) {
+        int first = p * particles;
+        double step = 1d / particles, u = nextDouble(p) * step, cumulative = weights[first];
+        for (int k = 0, i = 0; k < particles; k++) {
+            while (u > cumulative && i < particles - 1) {
+                cumulative += weights[first + ++i];
+            }
+            System.arraycopy(states, (first + i) * STATES, scratch, (first + k) * STATES, STATES);
+            u += step;
+        }
+        System.arraycopy(scratch, first * STATES, states, first * STATES, particles * STATES);
+        for (int k = 0; k < particles; k++) {
+            weights[first + k] = step;
+        }
+    }
+
+    /**
+     * Moves converted users to the transacted state, from each searching
+     * state in proportion to its size.
+     */
+    private void convert(int p, int k, double conversions) {
+        int base = (p * particles + k) * STATES;
+        double searching = states[base + FOCUS_ZERO] + states[base + FOCUS_ONE] + states[base + FOCUS_TWO];
+        if (conversions <= 0 || searching <= 0) {
+            return;
+        }
+        double f = Math.min(1d, conversions / searching);
+        for (int s = FOCUS_ZERO; s <= FOCUS_TWO; s++) {
+            double moved = states[base + s] * f;
+            states[base + s] -= moved;
+            states[base + TRANSACTED] += moved;
+        }
+    }
+
+    /**
+     * Steps one particle a day through the transitions, drawing each flow
+     * from a normal approximation of the binomial.
+     */
+    private void transition(int p, int k) {
+        int base = (p * particles + k) * STATES, out = (p * particles + k) * STATES;
+        double search = nextDouble(p) < BURST_PROBABILITY ? BURST_SEARCH : SEARCH;
+        for (int s = 0; s < STATES; s++) {
+            scratch[out + s] = 0d;
+        }
+        for (int from = 0; from < STATES; from++) {
+            double remaining = states[base + from], rest = 1d;
+            for (int to = 0; to < STATES && remaining > 0; to++) {
+                double pr = from == NON_SEARCHING ? (to == NON_SEARCHING ? 1d - search : (to == INFORMATIONAL ? search : 0d)) : TRANSITIONS[from][to];
+                if (pr <= 0) {
+                    continue;
+                }
+                double flow;
+                if (pr >= rest) {
+                    flow = remaining;
+                } else {
+                    double c = pr / rest;
+                    flow = remaining * c + nextGaussian(p) * Math.sqrt(remaining * c * (1d - c));
+                    flow = Math.max(0d, Math.min(remaining, flow));
+                }
+                scratch[out + to] += flow;
+                remaining -= flow;
+                rest -= pr;
+            }
+        }
+        System.arraycopy(scratch, out, states, base, STATES);
+    }
+
+    /**
+     * @return a uniform double in [0, 1) from the product's generator
+     */
+    private double nextDouble(int p) {
+        long x = randoms[p];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        randoms[p] = x;
+        return (x >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @return roughly a standard normal: the sum of four uniforms has mean 2 and variance 1/3
+     */
+    private double nextGaussian(int p) {
+        return (nextDouble(p) + nextDouble(p) + nextDouble(p) + nextDouble(p) - 2d) * 1.7320508075688772d;
+    }
+
+    private void updateMeans(int p) {
+        int first = p * particles;
+        for (int s = 0; s < STATES; s++) {
+            means[p * STATES + s] = 0d;
+        }
+        for (int k = 0; k < particles; k++) {
+            double w = weights[first + k];
+            for (int s = 0; s < STATES; s++) {
+                means[p * STATES + s] += w * states[(first + k) * STATES + s];
+            }
+        }
+    }
+
+    /**
+     * @return the expected number of the product's users in the state today
+     */
+    public double getExpectedUsers(int product, int state) {
+        return means[product * STATES + state];
+    }
+
+    /**
+     * Expected searches of a query today: focused users of the matching
+     * products, plus a share of their informational searchers, who pick a
+     * focus level and then a matching query at random.
+     */
+    public double predictSearches(int queryOrdinal) {
+        QueryType type = queryIndex.getType(queryOrdinal);
+        double searches = 0d;
+        for (int p = 0; p < products; p++) {
+            int base = p * STATES;
+            if (type == QueryType.FOCUS_LEVEL_TWO && f2Queries[p] == queryOrdinal) {
+                searches += means[base + FOCUS_TWO] + means[base + INFORMATIONAL] / 3d;
+            } else if (type == QueryType.FOCUS_LEVEL_ONE && (manufacturerQueries[p] == queryOrdinal || componentQueries[p] == queryOrdinal)) {
+                // F1 users and searchers pick the manufacturer or the component query
+                searches += (means[base + FOCUS_ONE] + means[base + INFORMATIONAL] / 3d) / 2d;
+            } else if (type == QueryType.FOCUS_LEVEL_ZERO) {
+                searches += means[base + FOCUS_ZERO] + means[base + INFORMATIONAL] / 3d;
+            }
+        }
+        return searches;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+}
@@ -1,6 +1,7 @@
 package eecs547.tac.aa;
 
-import java.text.DecimalFormat;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.Random;
 
 /**
@@ -10,14 +11,141 @@ import java.util.Random;
 public class Util {
 
     public static final Random RANDOM = new Random();
-    public static final DecimalFormat DECIMAL_FORMAT_3 = new DecimalFormat("#.###");
+    /**
+     * System property that, set to true, has the agents neither show nor
+     * save their graphs, e.g. in games played offline.
+     */
+    public static final String NO_GRAPHS_PROPERTY = "eecs547.tac.aa.noGraphs";
+    /**
+     * Dekker's constant for splitting a double into two 26-bit halves.
+     */
+    private static final double SPLITTER = 134217729d;
+    /**
+     * Above this magnitude a scaled value no longer has a fractional part to round.
+     */
+    private static final double MAX_EXACT = 4503599627370496d;
 
     static {
         RANDOM.setSeed(System.currentTimeMillis());
     }
 
+    /**
+     * Rounds to three decimal places, half to even, exactly as formatting with
+     * <code>new DecimalFormat("#.###")</code> and parsing back would, but
+     * without allocating and safe to call from any thread.
+     */
     public static final double round3(double d) {
-        return Double.valueOf(DECIMAL_FORMAT_3.format(d));
+        return round(d, 1000d);
+    }
+
+    /**
+     * Rounds to a multiple of 1 / scale, half to even on the exact value of d.
+     */
+    private static double round(double d, double scale) {
+        double p = d * scale;
+        if (Double.isNaN(p) || Double.isInfinite(p) || Math.abs(p) >= MAX_EXACT) {
+            return slowRound(d, scale, RoundingMode.HALF_EVEN);
+        }
+        double lo = Math.floor(p), frac = p - lo, r;
+        if (Math.abs(p) == 0.5d && Math.abs(d) == 0.5d / scale) {
+            // DecimalFormat treats a tie on the first digit as exact and rounds to even, i.e. to zero
+            r = 0;
+        } else if (Math.abs(frac - 0.5d) > 4 * Math.ulp(p)) {
+            r = frac < 0.5d ? lo : lo + 1;
+        } else {
+            // close to a tie, so decide on the exact product d * scale = p + e
+            double diff = (p - (lo + 0.5d)) + productError(d, scale, p);
+            if (diff > 0) {
+                r = lo + 1;
+            } else if (diff < 0) {
+                r = lo;
+            } else {
+                r = lo % 2 == 0 ? lo : lo + 1;
+            }
+        }
+        if (r == 0) {
+            return d < 0 ? -0d : 0d;
+        }
+        return r / scale;
+    }
+
+    /**
+     * @return the rounding error of p = a * b, so that a * b = p + error exactly
+     */
+    private static double productError(double a, double b, double p) {
+        double t = SPLITTER * a;
+        double aHi = t - (t - a), aLo = a - aHi;
+        t = SPLITTER * b;
+        double bHi = t - (t - b), bLo = b - bHi;
+        return ((aHi * bHi - p) + aHi * bLo + aLo * bHi) + aLo * bLo;
+    }
+
+    private static double slowRound(double d, double scale, RoundingMode mode) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return d;
+        }
+        int decimals = (int) Math.round(Math.log10(scale));
+        return new BigDecimal(d).setScale(decimals, mode).doubleValue();
+    }
+
+    /**
+     * Quantizes a value to a whole number of ticks, e.g. a bid to the nearest
+     * cent with a tick of 0.01.
+     *
+     * @param d the value
+     * @param tick the tick size, must be positive
+     * @param mode how to round values between two ticks; FLOOR and CEILING
+     * always round down or up, the HALF_ modes round to the nearest tick
+     */
+    public static final double quantize(double d, double tick, RoundingMode mode) {
+        if (!(tick > 0)) {
+            throw new IllegalArgumentException("tick must be positive: " + tick);
+        }
+        // ticks that divide one evenly are handled as a scale so results are clean decimals
+        double scale = 1d / tick, n = Math.rint(scale);
+        boolean decimal = n >= 1 && Math.abs(scale - n) < 1e-9 * n;
+        double q = decimal ? d * n : d / tick;
+        if (Double.isNaN(q) || Double.isInfinite(q) || Math.abs(q) >= MAX_EXACT) {
+            return d;
+        }
+        double k;
+        switch (mode) {
+            case FLOOR:
+                k = Math.floor(q);
+                break;
+            case CEILING:
+                k = Math.ceil(q);
+                break;
+            case DOWN:
+                k = q < 0 ? Math.ceil(q) : Math.floor(q);
+                break;
+            case UP:
+                k = q < 0 ? Math.floor(q) : Math.ceil(q);
+                break;
+            case HALF_UP:
+                k = q < 0 ? -Math.floor(-q + 0.5d) : Math.floor(q + 0.5d);
+                break;
+            case HALF_DOWN:
+                k = q < 0 ? -Math.ceil(-q - 0.5d) : Math.ceil(q - 0.5d);
+                break;
+            case HALF_EVEN:
+                k = Math.rint(q);
+                break;
+            default:
+                if (q != Math.rint(q)) {
+                    throw new ArithmeticException("rounding necessary");
+                }
+                k = q;
+        }
+        return decimal ? k / n : k * tick;
+    }
+
+    /**
+     * @return whether agents show their graphs and save them at the end of
+     * a game, true unless the {@link #NO_GRAPHS_PROPERTY} property is set
+     */
+    public static boolean isGraphsEnabled() {
+        return !Boolean.getBoolean(NO_GRAPHS_PROPERTY);
     }
 
     public static final void debug(String s) {
@@ -2,13 +2,14 @@ package eecs547.tac.aa.naive;
 
 import eecs547.tac.aa.Util;
 import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.DoubleTimeSeries;
+import eecs547.tac.aa.IntTimeSeries;
 import edu.umich.eecs.tac.props.Ad;
 import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Query;
 import edu.umich.eecs.tac.props.QueryReport;
 import edu.umich.eecs.tac.props.QueryType;
 import edu.umich.eecs.tac.props.SalesReport;
-import java.util.LinkedList;
 
 /**
  *
@@ -20,8 +21,8 @@ public class BidOptimizer {
     public BidModel bM;
     public Query query;
     public Bid bid;
-    private LinkedList<Double> bids = new LinkedList<Double>(), costs = new LinkedList<Double>(), revenues = new LinkedList<Double>(), cpc = new LinkedList<Double>(), position = new LinkedList<Double>();
-    private LinkedList<Integer> clicks = new LinkedList<Integer>(), conversions = new LinkedList<Integer>();
+    private DoubleTimeSeries bids = new DoubleTimeSeries(), costs = new DoubleTimeSeries(), revenues = new DoubleTimeSeries(), cpc = new DoubleTimeSeries(), position = new DoubleTimeSeries();
+    private IntTimeSeries clicks = new IntTimeSeries(), conversions = new IntTimeSeries();
     public Double bidDelta = 0d;
     private boolean firstBid = true;
 
@@ -32,7 +33,7 @@ public class BidOptimizer {
 
     public Bid getBid() {
         updateBid();
-        bids.add(bid.bid);
+        bids.addFirst(bid.bid);
         return bid;
     }
 
@@ -103,14 +104,14 @@ public class BidOptimizer {
     }
 
     public double getCPConv() {
-        if (conversions.isEmpty() || conversions.getFirst().equals(Double.NaN) || conversions.getFirst() == 0) {
+        if (conversions.isEmpty() || conversions.getFirst() == 0) {
             return 0d;
         }
         return costs.getFirst() / conversions.getFirst();
     }
 
     public double getPosition() {
-        if (position.isEmpty() || position.getFirst().equals(Double.NaN) || position.getFirst() == 0) {
+        if (position.isEmpty() || Double.isNaN(position.getFirst()) || position.getFirst() == 0) {
             return 0;
         }
         return 9d - position.getFirst();
@@ -0,0 +1,87 @@
+package eecs547.tac.aa.sim;
+
+import eecs547.tac.aa.BidPipeline;
+import eecs547.tac.aa.BudgetedAgent;
+import eecs547.tac.aa.GraphingAgent;
+import edu.umich.eecs.tac.props.BidBundle;
+import se.sics.isl.transport.Transportable;
+import se.sics.tasim.aw.Agent;
+import se.sics.tasim.aw.AgentService;
+import se.sics.tasim.aw.Message;
+import se.sics.tasim.aw.TimeListener;
+
+/**
+ * Connects one agent to an in-process game: messages are handed straight
+ * to the agent and the last bid bundle it sends is kept. The server time is
+ * whatever the game last set. The game waits for the agent, so a
+ * {@link BudgetedAgent} gets no time budget: its bids do not depend on how
+ * loaded the machine is. A {@link GraphingAgent} plays headless, so no
+ * windows open and no snapshots are written over each other.
+ *
+ * @author Augie
+ */
+class LocalAgentService extends AgentService {
+
+    private volatile BidBundle bundle;
+    private volatile long serverTime = 0L;
+
+    LocalAgentService(Agent agent, String name) {
+        super(agent, name);
+        if (agent instanceof BudgetedAgent) {
+            ((BudgetedAgent) agent).setBidBudget(BidPipeline.NO_BUDGET);
+        }
+        if (agent instanceof GraphingAgent) {
+            ((GraphingAgent) agent).setGraphs(false);
+        }
+    }
+
+    void initialize() {
+        initializeAgent();
+    }
+
+    void setup(String address) {
+        simulationSetup(address);
+    }
+
+    void finish() {
+        simulationFinished();
+    }
+
+    void deliver(Message message) {
+        deliverToAgent(message);
+    }
+
+    /**
+     * @return the last bid bundle sent since {@link #clearBundle()}, or null
+     */
+    BidBundle getBundle() {
+        return bundle;
+    }
+
+    void clearBundle() {
+        bundle = null;
+    }
+
+    void setServerTime(long serverTime) {
+        this.serverTime = serverTime;
+    }
+
+    protected void addTimeListener(TimeListener listener) {
+    }
+
+    protected void removeTimeListener(TimeListener listener) {
+    }
+
+    protected long getServerTime() {
+        return serverTime;
+    }
+
+    protected void deliverToServer(Message message) {
+        if (message.getContent() instanceof BidBundle) {
+            bundle = (BidBundle) message.getContent();
+        }
+    }
+
+    protected void deliverToServer(int role, Transportable content) {
+    }
+}
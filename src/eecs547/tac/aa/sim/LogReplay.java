@@ -0,0 +1,590 @@
+package eecs547.tac.aa.sim;
+
+import edu.umich.eecs.tac.TACAAConstants;
+import edu.umich.eecs.tac.props.AAInfo;
+import edu.umich.eecs.tac.props.Ad;
+import edu.umich.eecs.tac.props.BidBundle;
+import edu.umich.eecs.tac.props.Query;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import se.sics.isl.transport.TransportReader;
+import se.sics.isl.transport.Transportable;
+import se.sics.tasim.aw.Agent;
+import se.sics.tasim.aw.Message;
+import se.sics.tasim.logtool.LogReader;
+import se.sics.tasim.logtool.ParticipantInfo;
+
+/**
+ * Plays recorded games back into fresh agents as fast as they take the
+ * messages, and compares the bid bundles they send with the ones the
+ * recorded advertisers sent, day by day. A strategy change can so be
+ * checked against real tournament traffic in seconds.
+ * <p>
+ * The input is the server's simulation logs (.slg, or .slg.gz as the game
+ * servers offer them for download), which hold every message of the game;
+ * the agent side logs under log.sim.directory are text logs of what the
+ * agent printed and cannot be played back. A log is mapped into memory
+ * rather than read through a stream, and its chunks are decoded as the
+ * replay reaches them: only the messages to and from the replayed
+ * advertisers are turned into objects, everything else is skipped over.
+ * <p>
+ * Each advertiser of a log gets its own instance of the agent, which sees
+ * exactly what that advertiser saw; the others' bundles are not needed
+ * since the log already holds the reports they led to. Logs are replayed
+ * in parallel, one per worker thread. As in the simulator, the agents'
+ * graphs are off.
+ *
+ * @author Augie
+ */
+public class LogReplay {
+
+    /**
+     * Bids closer than this count as the same.
+     */
+    public static final double TOLERANCE = 1e-6;
+    private final Class<? extends Agent> agentClass;
+    private String advertiser = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param agentClass the agent played into the logs, one instance per advertiser
+     */
+    public LogReplay(Class<? extends Agent> agentClass) {
+        this.agentClass = agentClass;
+    }
+
+    /**
+     * @param advertiser the only advertiser to replay, by address, or null for all
+     */
+    public void setAdvertiser(String advertiser) {
+        this.advertiser = advertiser;
+    }
+
+    /**
+     * @param threads logs replayed at the same time
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Replays the logs in parallel. A log that cannot be read or whose
+     * replay throws is reported with its error instead of differences.
+     * @return one result per log, in the order given
+     */
+    public List<Result> replay(List<File> logs) throws InterruptedException {
+        List<Result> results = new ArrayList<Result>(logs.size());
+        if (logs.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, logs.size()));
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>(logs.size());
+            for (final File log : logs) {
+                futures.add(executor.submit(new Callable<Result>() {
+
+                    public Result call() throws Exception {
+                        return replay(log);
+                    }
+                }));
+            }
+            for (int i = 0; i < logs.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(logs.get(i), e.getCause()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Replays one log on the calling thread.
+     */
+    public Result replay(File log) throws IOException, ParseException, ReflectiveOperationException {
+        LogReader reader = new LogReader(open(log));
+        try {
+            reader.setContext(new AAInfo().createContext());
+            ParticipantInfo[] participants = reader.getParticipants();
+            // participant index to seat, -1 if not replayed
+            int[] seats = new int[participants.length];
+            Arrays.fill(seats, -1);
+            List<Seat> replayed = new ArrayList<Seat>();
+            for (int i = 0; i < participants.length; i++) {
+                ParticipantInfo p = participants[i];
+                if (p != null && p.getRole() == TACAAConstants.ADVERTISER && (advertiser == null || advertiser.equals(p.getAddress()))) {
+                    seats[i] = replayed.size();
+                    replayed.add(new Seat(p.getAddress(), agentClass.getDeclaredConstructor().newInstance()));
+                }
+            }
+            if (replayed.isEmpty()) {
+                return new Result(log, reader.getSimulationID(), replayed);
+            }
+            for (Seat seat : replayed) {
+                seat.service.initialize();
+                seat.service.setup(seat.address);
+            }
+            int day = 0;
+            while (reader.hasMoreChunks()) {
+                TransportReader chunk = reader.nextChunk();
+                while (chunk.nextNode(false)) {
+                    if (chunk.isNode("nextTimeUnit")) {
+                        day = chunk.getAttributeAsInt("unit");
+                    } else if (chunk.isNode("message")) {
+                        int sender = chunk.getAttributeAsInt("sender"), receiver = chunk.getAttributeAsInt("receiver");
+                        int to = getSeat(seats, receiver), from = getSeat(seats, sender);
+                        if (to < 0 && from < 0) {
+                            // not ours, leave it undecoded
+                            continue;
+                        }
+                        long time = chunk.getAttributeAsLong("time", 0L);
+                        Transportable content = readContent(chunk);
+                        if (from >= 0 && content instanceof BidBundle) {
+                            replayed.get(from).setRecorded(day, (BidBundle) content);
+                        }
+                        if (to >= 0) {
+                            replayed.get(to).deliver(day, time, getAddress(participants, sender), content);
+                        }
+                    } else if (chunk.isNode("messageToRole")) {
+                        if (chunk.getAttributeAsInt("role") != TACAAConstants.ADVERTISER) {
+                            continue;
+                        }
+                        int sender = chunk.getAttributeAsInt("sender");
+                        long time = chunk.getAttributeAsLong("time", 0L);
+                        Transportable content = readContent(chunk);
+                        for (Seat seat : replayed) {
+                            seat.deliver(day, time, getAddress(participants, sender), content);
+                        }
+                    }
+                }
+            }
+            for (Seat seat : replayed) {
+                // an advertiser the log sent nothing to never started
+                if (seat.started) {
+                    seat.service.finish();
+                }
+            }
+            return new Result(log, reader.getSimulationID(), replayed);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int getSeat(int[] seats, int participant) {
+        return participant >= 0 && participant < seats.length ? seats[participant] : -1;
+    }
+
+    private static String getAddress(ParticipantInfo[] participants, int participant) {
+        if (participant >= 0 && participant < participants.length && participants[participant] != null) {
+            return participants[participant].getAddress();
+        }
+        return "coordinator";
+    }
+
+    /**
+     * Decodes the message the reader is on and leaves the reader after it.
+     */
+    private static Transportable readContent(TransportReader chunk) throws ParseException {
+        chunk.enterNode();
+        Transportable content = null;
+        if (chunk.nextNode(false)) {
+            content = chunk.readTransportable();
+        }
+        chunk.exitNode();
+        return content;
+    }
+
+    /**
+     * Maps the log into memory, unpacking it on the fly if it is gzipped.
+     */
+    private static InputStream open(File log) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(log, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        } finally {
+            // the mapping stays valid after the file is closed
+            file.close();
+        }
+        InputStream input = new ByteBufferInputStream(buffer);
+        if (log.getName().endsWith(".gz")) {
+            input = new GZIPInputStream(input, 1 << 16);
+        }
+        return input;
+    }
+
+    /**
+     * An input stream over a byte buffer, so a mapped log reads without copies into a stream buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        public long skip(long n) {
+            int k = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * One replayed advertiser: its agent and the bundles sent each day, recorded and replayed.
+     */
+    private static class Seat {
+
+        // bundles are kept by day, growing past a standard game if need be
+        private static final int DAYS = MarketSimulator.DEFAULT_DAYS + 1;
+
+        private final String address;
+        private final LocalAgentService service;
+        private BidBundle[] recorded, replayed;
+        private boolean started = false;
+
+        Seat(String address, Agent agent) {
+            this.address = address;
+            service = new LocalAgentService(agent, address);
+            recorded = new BidBundle[DAYS];
+            replayed = new BidBundle[DAYS];
+        }
+
+        void deliver(int day, long time, String sender, Transportable content) {
+            if (content == null) {
+                return;
+            }
+            started = true;
+            service.setServerTime(time);
+            service.clearBundle();
+            service.deliver(new Message(sender, address, content));
+            BidBundle bundle = service.getBundle();
+            if (bundle != null) {
+                replayed = store(replayed, day, bundle);
+            }
+        }
+
+        void setRecorded(int day, BidBundle bundle) {
+            recorded = store(recorded, day, bundle);
+        }
+
+        private static BidBundle[] store(BidBundle[] bundles, int day, BidBundle bundle) {
+            if (day >= bundles.length) {
+                bundles = Arrays.copyOf(bundles, day + 1);
+            }
+            bundles[day] = bundle;
+            return bundles;
+        }
+    }
+
+    /**
+     * The differences found in one log.
+     */
+    public static class Result {
+
+        private final File log;
+        private final int simulationId;
+        private final Throwable error;
+        private final List<Difference> differences = new ArrayList<Difference>();
+        private int comparedDays = 0;
+
+        Result(File log, Throwable error) {
+            this.log = log;
+            this.simulationId = -1;
+            this.error = error;
+        }
+
+        Result(File log, int simulationId, List<Seat> seats) {
+            this.log = log;
+            this.simulationId = simulationId;
+            this.error = null;
+            for (Seat seat : seats) {
+                if (!seat.started) {
+                    continue;
+                }
+                int days = Math.max(seat.recorded.length, seat.replayed.length);
+                for (int d = 0; d < days; d++) {
+                    BidBundle a = d < seat.recorded.length ? seat.recorded[d] : null;
+                    BidBundle b = d < seat.replayed.length ? seat.replayed[d] : null;
+                    if (a == null && b == null) {
+                        continue;
+                    }
+                    comparedDays++;
+                    Difference difference = Difference.between(seat.address, d, a, b);
+                    if (difference != null) {
+                        differences.add(difference);
+                    }
+                }
+            }
+        }
+
+        public File getLog() {
+            return log;
+        }
+
+        public int getSimulationId() {
+            return simulationId;
+        }
+
+        /**
+         * @return why the log could not be replayed, or null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return advertiser days with a bundle on either side
+         */
+        public int getComparedDays() {
+            return comparedDays;
+        }
+
+        /**
+         * @return the advertiser days whose bundles differ
+         */
+        public List<Difference> getDifferences() {
+            return differences;
+        }
+    }
+
+    /**
+     * How a replayed day's bundle differs from the recorded one.
+     */
+    public static class Difference {
+
+        private final String advertiser;
+        private final int day;
+        private final boolean missing;
+        private final int changedQueries;
+        private final double maxBidChange, campaignLimitChange;
+
+        private Difference(String advertiser, int day, boolean missing, int changedQueries, double maxBidChange, double campaignLimitChange) {
+            this.advertiser = advertiser;
+            this.day = day;
+            this.missing = missing;
+            this.changedQueries = changedQueries;
+            this.maxBidChange = maxBidChange;
+            this.campaignLimitChange = campaignLimitChange;
+        }
+
+        /**
+         * @return the difference, or null if the bundles agree
+         */
+        static Difference between(String advertiser, int day, BidBundle recorded, BidBundle replayed) {
+            if (recorded == null || replayed == null) {
+                return new Difference(advertiser, day, true, 0, Double.NaN, Double.NaN);
+            }
+            Set<Query> queries = new HashSet<Query>();
+            for (Query q : recorded) {
+                queries.add(q);
+            }
+            for (Query q : replayed) {
+                queries.add(q);
+            }
+            int changed = 0;
+            double maxChange = 0d;
+            for (Query q : queries) {
+                double change = change(recorded.getBid(q), replayed.getBid(q));
+                maxChange = Math.max(maxChange, change);
+                if (change > TOLERANCE || change(recorded.getDailyLimit(q), replayed.getDailyLimit(q)) > TOLERANCE || !same(recorded.getAd(q), replayed.getAd(q))) {
+                    changed++;
+                }
+            }
+            double limitChange = change(recorded.getCampaignDailySpendLimit(), replayed.getCampaignDailySpendLimit());
+            if (changed == 0 && !(limitChange > TOLERANCE)) {
+                return null;
+            }
+            return new Difference(advertiser, day, false, changed, maxChange, limitChange);
+        }
+
+        /**
+         * @return the absolute change, 0 if both are unset and infinite if one is
+         */
+        private static double change(double a, double b) {
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return Double.isNaN(a) == Double.isNaN(b) ? 0d : Double.POSITIVE_INFINITY;
+            }
+            return a == b ? 0d : Math.abs(a - b);
+        }
+
+        private static boolean same(Ad a, Ad b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        public String getAdvertiser() {
+            return advertiser;
+        }
+
+        public int getDay() {
+            return day;
+        }
+
+        /**
+         * @return whether only one side sent a bundle that day
+         */
+        public boolean isMissing() {
+            return missing;
+        }
+
+        public int getChangedQueries() {
+            return changedQueries;
+        }
+
+        public double getMaxBidChange() {
+            return maxBidChange;
+        }
+
+        public double getCampaignLimitChange() {
+            return campaignLimitChange;
+        }
+    }
+
+    /**
+     * Adds the logs in a file or directory, directories one level deep.
+     */
+    private static void addLogs(File file, List<File> logs) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.isFile() && (f.getName().endsWith(".slg") || f.getName().endsWith(".slg.gz"))) {
+                    logs.add(f);
+                }
+            }
+        } else {
+            logs.add(file);
+        }
+    }
+
+    /**
+     * Replays logs into an agent and prints the days its bundles differ.
+     * The agents' own output is dropped unless -verbose is given.
+     * @param args [-agent class] [-advertiser address] [-threads n] [-verbose] logs or directories of logs
+     */
+    public static void main(String[] args) throws Exception {
+        String agentClass = "eecs547.tac.aa.v4.TigerBloodV4", advertiser = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean verbose = false;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-")) {
+            if (args[first].equals("-verbose")) {
+                verbose = true;
+                first++;
+                continue;
+            }
+            if (first + 1 >= args.length) {
+                break;
+            }
+            if (args[first].equals("-agent")) {
+                agentClass = args[first + 1];
+            } else if (args[first].equals("-advertiser")) {
+                advertiser = args[first + 1];
+            } else if (args[first].equals("-threads")) {
+                threads = Integer.parseInt(args[first + 1]);
+            } else {
+                break;
+            }
+            first += 2;
+        }
+        if (first >= args.length || args[first].startsWith("-")) {
+            System.err.println("usage: LogReplay [-agent class] [-advertiser address] [-threads n] [-verbose] log...");
+            System.exit(1);
+        }
+        List<File> logs = new ArrayList<File>();
+        for (int i = first; i < args.length; i++) {
+            addLogs(new File(args[i]), logs);
+        }
+        LogReplay replay = new LogReplay(Class.forName(agentClass).asSubclass(Agent.class));
+        replay.setAdvertiser(advertiser);
+        replay.setThreads(threads);
+        PrintStream out = System.out;
+        if (!verbose) {
+            System.setOut(new PrintStream(new OutputStream() {
+
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        List<Result> results;
+        try {
+            results = replay.replay(logs);
+        } finally {
+            System.setOut(out);
+        }
+        long millis = (System.nanoTime() - start) / 1000000L;
+        int different = 0;
+        for (Result result : results) {
+            if (result.getError() != null) {
+                out.println(result.getLog() + ": failed: " + result.getError());
+                continue;
+            }
+            List<Difference> differences = result.getDifferences();
+            if (!differences.isEmpty()) {
+                different++;
+            }
+            out.println(result.getLog() + ": simulation " + result.getSimulationId() + ", " + differences.size() + " of " + result.getComparedDays() + " advertiser days differ");
+            for (Difference d : differences) {
+                if (d.isMissing()) {
+                    out.println("  " + d.getAdvertiser() + " day " + d.getDay() + ": bundle on one side only");
+                } else {
+                    out.println(String.format("  %s day %d: %d queries changed, max bid change %.4f, campaign limit change %.2f", d.getAdvertiser(), d.getDay(), d.getChangedQueries(), d.getMaxBidChange(), d.getCampaignLimitChange()));
+                }
+            }
+        }
+        out.println(logs.size() + " logs, " + different + " with differences, in " + millis + " ms");
+    }
+}
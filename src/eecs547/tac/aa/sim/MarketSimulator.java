@@ -0,0 +1,745 @@
+package eecs547.tac.aa.sim;
+
+import eecs547.tac.aa.AuctionKernel;
+import eecs547.tac.aa.QueryIndex;
+import edu.umich.eecs.tac.props.Ad;
+import edu.umich.eecs.tac.props.AdvertiserInfo;
+import edu.umich.eecs.tac.props.BidBundle;
+import edu.umich.eecs.tac.props.Product;
+import edu.umich.eecs.tac.props.PublisherInfo;
+import edu.umich.eecs.tac.props.Query;
+import edu.umich.eecs.tac.props.QueryReport;
+import edu.umich.eecs.tac.props.QueryType;
+import edu.umich.eecs.tac.props.RetailCatalog;
+import edu.umich.eecs.tac.props.SalesReport;
+import edu.umich.eecs.tac.props.SlotInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import se.sics.isl.transport.Transportable;
+import se.sics.tasim.aw.Agent;
+import se.sics.tasim.aw.Message;
+import se.sics.tasim.props.SimulationStatus;
+import se.sics.tasim.props.StartInfo;
+
+/**
+ * In-process stand-in for the TAC AA server, the publisher and the users,
+ * so whole games can be played against any agents without a server and
+ * without waiting out the days. Each agent is wired to the simulator
+ * through its own {@link se.sics.tasim.aw.AgentService}, receives the same messages it
+ * would from the server, and its bid bundles are picked up as it sends
+ * them.
+ * <p>
+ * Each product has a population of users moving between non-searching,
+ * informational, focus level 0, 1 and 2 searching and transacted states
+ * with the game's transition probabilities and occasional bursts of new
+ * searchers. Searching users issue one query a day. Every query's auction
+ * ranks the ads by squashed bid and charges generalized second prices;
+ * users look down the slots, click with the advertiser effect raised for
+ * targeting and promotion, convert with the focus level's rate lowered by
+ * the capacity discounter and raised by the component bonus, and stop on a
+ * conversion or with the continuation probability. Users are counted
+ * rather than simulated one by one, with binomial draws, and pass through
+ * each auction in a few batches so spend limits can take ads off part way
+ * through the day.
+ * <p>
+ * As in the game, the reports for a day reach the agents the day after,
+ * and the bids sent on a day are used the day after that.
+ * <p>
+ * Games are played headless: every {@link eecs547.tac.aa.GraphingAgent}
+ * seated has its graphs turned off.
+ *
+ * @author Augie
+ */
+public class MarketSimulator {
+
+    public static final String PUBLISHER = "publisher";
+    public static final int DEFAULT_DAYS = 60, SECONDS_PER_DAY = 10;
+    public static final int USERS_PER_PRODUCT = 10000;
+    public static final String[] MANUFACTURERS = {"flat", "lioneer", "pg"}, COMPONENTS = {"tv", "dvd", "audio"};
+    public static final int[] CAPACITIES = {300, 450, 600};
+    private static final int NON_SEARCHING = 0, INFORMATIONAL = 1, FOCUS_ZERO = 2, FOCUS_ONE = 3, FOCUS_TWO = 4, TRANSACTED = 5, STATES = 6;
+    private static final double BURST_PROBABILITY = 0.1, BURST_SEARCH = 0.2, SEARCH = 0.01;
+    private static final double[][] TRANSITIONS = {
+        {1d - SEARCH, SEARCH, 0d, 0d, 0d, 0d},
+        {0.05, 0.2, 0.6, 0.1, 0.05, 0d},
+        {0.1, 0d, 0.7, 0.2, 0d, 0d},
+        {0.1, 0d, 0d, 0.7, 0.2, 0d},
+        {0.1, 0d, 0d, 0d, 0.9, 0d},
+        {0.2, 0d, 0d, 0d, 0d, 0.8}
+    };
+    /**
+     * Days the users are stepped before the game so it starts with searchers.
+     */
+    private static final int VIRTUAL_DAYS = 5;
+    /**
+     * Parts each query's searchers are split into; spend limits are checked between them.
+     */
+    private static final int BATCHES = 10;
+    private static final int REGULAR_SLOTS = 5, PROMOTED_SLOTS = 1, DISTRIBUTION_WINDOW = 5;
+    private static final double PROMOTED_BONUS = 0.5, DISCOUNTER = 0.995, TARGET_EFFECT = 0.5;
+    private static final double MANUFACTURER_BONUS = 0.4, COMPONENT_BONUS = 0.6;
+    private static final double SQRT3 = Math.sqrt(3d);
+    private final long seed;
+    // xorshift state; java.util.Random's gaussians dominated the run time
+    private long random;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Agent> agents = new ArrayList<Agent>();
+    private int days = DEFAULT_DAYS, simulationId = 1, day = 0;
+    // the game, set up by run
+    private RetailCatalog catalog, sharedCatalog;
+    private QueryIndex queryIndex;
+    private Product[] products;
+    private int[] productQueries, manufacturerQueries, componentQueries;
+    private int f0Query;
+    private double squashing, regularReserve, promotedReserve;
+    private double[] continuations;
+    private LocalAgentService[] services;
+    private QueryReport[] queryReports;
+    private SalesReport[] salesReports;
+    private String[] manufacturers, components;
+    private AdvertiserInfo[] infos;
+    private int[][] users;
+    // [advertiser][query]
+    private double[][] bids, limits, effects, factors;
+    private Ad[][] ads;
+    private double[] campaignLimits;
+    // the day's outcome, [advertiser][query]
+    private int[][] regularImpressions, promotedImpressions, clicks, conversions;
+    private double[][] costs, revenues, positionSums;
+    private double[] spent;
+    private boolean[] exhausted;
+    // conversions per advertiser per day of the distribution window, and today's
+    private int[][] windows;
+    private int[] today;
+    // running totals, [advertiser]
+    private double[] totalRevenue, totalCost;
+    private int[] totalConversions, totalClicks, totalImpressions;
+
+    public MarketSimulator(long seed) {
+        this.seed = seed;
+        // scramble so nearby seeds start far apart, and never zero
+        random = (seed ^ 0x5DEECE66DL) * 0x9E3779B97F4A7C15L;
+        if (random == 0L) {
+            random = 1L;
+        }
+    }
+
+    /**
+     * Enters an agent in the next game.
+     * @param name the advertiser's name and address
+     */
+    public void addAdvertiser(String name, Agent agent) {
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("duplicate advertiser: " + name);
+        }
+        names.add(name);
+        agents.add(agent);
+    }
+
+    public void setNumberOfDays(int days) {
+        if (days < 1) {
+            throw new IllegalArgumentException("days must be positive: " + days);
+        }
+        this.days = days;
+    }
+
+    /**
+     * @return the catalog of a game with the seed, see {@link #createRetailCatalog(String[], String[], long)}
+     */
+    public static RetailCatalog createRetailCatalog(long seed) {
+        return createRetailCatalog(MANUFACTURERS, COMPONENTS, seed);
+    }
+
+    /**
+     * @return every product of the manufacturers and components, each
+     * selling for 10 or 15 as drawn from the seed
+     */
+    public static RetailCatalog createRetailCatalog(String[] manufacturers, String[] components, long seed) {
+        Random random = new Random(seed);
+        RetailCatalog catalog = new RetailCatalog();
+        for (String m : manufacturers) {
+            for (String c : components) {
+                Product p = new Product(m, c);
+                catalog.addProduct(p);
+                catalog.setSalesProfit(p, random.nextBoolean() ? 10d : 15d);
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Plays the next games with the given catalog instead of drawing the
+     * sales profits. The catalog is handed to the agents as it is, so it
+     * must not change while games use it; it can then be shared by games
+     * running at the same time.
+     * @param catalog the products and their sales profits, or null to draw them
+     */
+    public void setRetailCatalog(RetailCatalog catalog) {
+        sharedCatalog = catalog;
+    }
+
+    public void setSimulationId(int simulationId) {
+        this.simulationId = simulationId;
+    }
+
+    /**
+     * Plays one game with the entered agents.
+     */
+    public void run() {
+        start();
+        while (step()) {
+        }
+        finish();
+    }
+
+    /**
+     * Sets up a game and sends the agents the game information, so the game
+     * can be played a day at a time with {@link #step()}.
+     */
+    public void start() {
+        setup();
+        for (int a = 0; a < agents.size(); a++) {
+            services[a].initialize();
+            services[a].setup(names.get(a));
+            deliver(a, new StartInfo(simulationId, 0L, days * SECONDS_PER_DAY * 1000, SECONDS_PER_DAY));
+            SlotInfo slotInfo = new SlotInfo();
+            slotInfo.setRegularSlots(REGULAR_SLOTS);
+            slotInfo.setPromotedSlots(PROMOTED_SLOTS);
+            slotInfo.setPromotedSlotBonus(PROMOTED_BONUS);
+            deliver(a, slotInfo);
+            deliver(a, catalog);
+            deliver(a, infos[a]);
+            PublisherInfo publisherInfo = new PublisherInfo();
+            publisherInfo.setSquashingParameter(squashing);
+            deliver(a, publisherInfo);
+        }
+        queryReports = new QueryReport[agents.size()];
+        salesReports = new SalesReport[agents.size()];
+        day = 0;
+    }
+
+    /**
+     * Plays the next day: the agents get the last day's reports and the
+     * simulation status, the users search and the bundles the agents sent
+     * are taken up for the day after.
+     * @return whether there are days left to play
+     */
+    public boolean step() {
+        if (day >= days) {
+            return false;
+        }
+        for (int a = 0; a < agents.size(); a++) {
+            if (queryReports[a] != null) {
+                deliver(a, queryReports[a]);
+                deliver(a, salesReports[a]);
+            }
+            services[a].setServerTime(day * SECONDS_PER_DAY * 1000L);
+            services[a].clearBundle();
+            deliver(a, new SimulationStatus(day, 0));
+        }
+        simulateDay();
+        for (int a = 0; a < agents.size(); a++) {
+            queryReports[a] = createQueryReport(a);
+            salesReports[a] = createSalesReport(a);
+            // sent today, used tomorrow
+            if (services[a].getBundle() != null) {
+                apply(a, services[a].getBundle());
+            }
+        }
+        day++;
+        return day < days;
+    }
+
+    /**
+     * Ends the game for the agents.
+     */
+    public void finish() {
+        for (int a = 0; a < agents.size(); a++) {
+            services[a].finish();
+        }
+    }
+
+    /**
+     * @return days played so far
+     */
+    public int getDay() {
+        return day;
+    }
+
+    /**
+     * @return the query report of the last day played, which the agent gets on the next step
+     */
+    public QueryReport getQueryReport(int advertiser) {
+        return queryReports[advertiser];
+    }
+
+    /**
+     * @return the sales report of the last day played, which the agent gets on the next step
+     */
+    public SalesReport getSalesReport(int advertiser) {
+        return salesReports[advertiser];
+    }
+
+    private void setup() {
+        int advertisers = agents.size();
+        catalog = sharedCatalog != null ? sharedCatalog : createRetailCatalog(seed);
+        products = new Product[catalog.size()];
+        Set<Query> querySpace = new LinkedHashSet<Query>();
+        querySpace.add(new Query(null, null));
+        int n = 0;
+        for (Product p : catalog.keys()) {
+            products[n++] = p;
+            querySpace.add(new Query(p.getManufacturer(), null));
+            querySpace.add(new Query(null, p.getComponent()));
+            querySpace.add(new Query(p.getManufacturer(), p.getComponent()));
+        }
+        manufacturers = order(MANUFACTURERS, catalog.getManufacturers());
+        components = order(COMPONENTS, catalog.getComponents());
+        queryIndex = new QueryIndex(querySpace, catalog);
+        int queries = queryIndex.size();
+        f0Query = queryIndex.indexOf(new Query(null, null));
+        productQueries = new int[products.length];
+        manufacturerQueries = new int[products.length];
+        componentQueries = new int[products.length];
+        for (int p = 0; p < products.length; p++) {
+            productQueries[p] = queryIndex.indexOf(new Query(products[p].getManufacturer(), products[p].getComponent()));
+            manufacturerQueries[p] = queryIndex.indexOf(new Query(products[p].getManufacturer(), null));
+            componentQueries[p] = queryIndex.indexOf(new Query(null, products[p].getComponent()));
+        }
+        squashing = uniform();
+        regularReserve = 0.08 + 0.21 * uniform();
+        promotedReserve = regularReserve + 0.2 * uniform();
+        continuations = new double[queries];
+        for (int q = 0; q < queries; q++) {
+            continuations[q] = AuctionKernel.getDefaultContinuation(queryIndex.getType(q)) + 0.1 * (uniform() - 0.5);
+        }
+        services = new LocalAgentService[advertisers];
+        infos = new AdvertiserInfo[advertisers];
+        bids = new double[advertisers][queries];
+        limits = new double[advertisers][queries];
+        effects = new double[advertisers][queries];
+        factors = new double[advertisers][queries];
+        ads = new Ad[advertisers][queries];
+        campaignLimits = new double[advertisers];
+        regularImpressions = new int[advertisers][queries];
+        promotedImpressions = new int[advertisers][queries];
+        clicks = new int[advertisers][queries];
+        conversions = new int[advertisers][queries];
+        costs = new double[advertisers][queries];
+        revenues = new double[advertisers][queries];
+        positionSums = new double[advertisers][queries];
+        spent = new double[advertisers];
+        exhausted = new boolean[advertisers * (queries + 1)];
+        windows = new int[advertisers][DISTRIBUTION_WINDOW];
+        today = new int[advertisers];
+        totalRevenue = new double[advertisers];
+        totalCost = new double[advertisers];
+        totalConversions = new int[advertisers];
+        totalClicks = new int[advertisers];
+        totalImpressions = new int[advertisers];
+        // spread the capacities evenly, in random order
+        int offset = (int) (uniform() * CAPACITIES.length);
+        for (int a = 0; a < advertisers; a++) {
+            services[a] = new LocalAgentService(agents.get(a), names.get(a));
+            AdvertiserInfo info = new AdvertiserInfo();
+            info.setAdvertiserId(names.get(a));
+            info.setPublisherId(PUBLISHER);
+            info.setDistributionCapacity(CAPACITIES[(a + offset) % CAPACITIES.length]);
+            info.setDistributionWindow(DISTRIBUTION_WINDOW);
+            info.setDistributionCapacityDiscounter(DISCOUNTER);
+            info.setManufacturerSpecialty(manufacturers[(int) (uniform() * manufacturers.length)]);
+            info.setComponentSpecialty(components[(int) (uniform() * components.length)]);
+            info.setManufacturerBonus(MANUFACTURER_BONUS);
+            info.setComponentBonus(COMPONENT_BONUS);
+            info.setTargetEffect(TARGET_EFFECT);
+            info.setFocusEffects(QueryType.FOCUS_LEVEL_ZERO, 0.1);
+            info.setFocusEffects(QueryType.FOCUS_LEVEL_ONE, 0.2);
+            info.setFocusEffects(QueryType.FOCUS_LEVEL_TWO, 0.3);
+            infos[a] = info;
+            campaignLimits[a] = BidBundle.NO_SPEND_LIMIT;
+            for (int q = 0; q < queries; q++) {
+                limits[a][q] = BidBundle.NO_SPEND_LIMIT;
+                effects[a][q] = AuctionKernel.getDefaultAdvertiserEffect(queryIndex.getType(q)) + 0.1 * (uniform() - 0.5);
+                factors[a][q] = Math.pow(effects[a][q], squashing);
+                ads[a][q] = new Ad();
+            }
+        }
+        users = new int[products.length][STATES];
+        for (int p = 0; p < products.length; p++) {
+            users[p][NON_SEARCHING] = USERS_PER_PRODUCT;
+            for (int d = 0; d < VIRTUAL_DAYS; d++) {
+                transition(p);
+            }
+        }
+    }
+
+    /**
+     * @return the names, the game's usual ones first in their usual order
+     * and any others sorted, so specialties are drawn the same way every time
+     */
+    private static String[] order(String[] usual, Set<String> names) {
+        List<String> ordered = new ArrayList<String>();
+        for (String name : usual) {
+            if (names.contains(name)) {
+                ordered.add(name);
+            }
+        }
+        List<String> others = new ArrayList<String>(names);
+        others.removeAll(ordered);
+        Collections.sort(others);
+        ordered.addAll(others);
+        return ordered.toArray(new String[ordered.size()]);
+    }
+
+    private void deliver(int advertiser, Transportable content) {
+        services[advertiser].deliver(new Message(PUBLISHER, names.get(advertiser), content));
+    }
+
+    /**
+     * Takes the bundle's changes; anything it leaves out or marks persistent stays as it was.
+     */
+    private void apply(int a, BidBundle bundle) {
+        for (Query query : bundle) {
+            int q = queryIndex.indexOf(query);
+            if (q < 0) {
+                continue;
+            }
+            double bid = bundle.getBid(query), limit = bundle.getDailyLimit(query);
+            Ad ad = bundle.getAd(query);
+            if (!Double.isNaN(bid)) {
+                bids[a][q] = bid;
+            }
+            if (!Double.isNaN(limit)) {
+                limits[a][q] = limit;
+            }
+            if (ad != null) {
+                ads[a][q] = ad;
+            }
+        }
+        if (!Double.isNaN(bundle.getCampaignDailySpendLimit())) {
+            campaignLimits[a] = bundle.getCampaignDailySpendLimit();
+        }
+    }
+
+    private void simulateDay() {
+        int advertisers = agents.size(), queries = queryIndex.size();
+        for (int a = 0; a < advertisers; a++) {
+            Arrays.fill(regularImpressions[a], 0);
+            Arrays.fill(promotedImpressions[a], 0);
+            Arrays.fill(clicks[a], 0);
+            Arrays.fill(conversions[a], 0);
+            Arrays.fill(costs[a], 0d);
+            Arrays.fill(revenues[a], 0d);
+            Arrays.fill(positionSums[a], 0d);
+            spent[a] = 0d;
+            today[a] = 0;
+        }
+        Arrays.fill(exhausted, false);
+        // who searches what: [query][product][state]
+        int[][][] searchers = new int[queries][products.length][STATES];
+        for (int p = 0; p < products.length; p++) {
+            int[] u = users[p];
+            searchers[f0Query][p][FOCUS_ZERO] += u[FOCUS_ZERO];
+            int manufacturer = binomial(u[FOCUS_ONE], 0.5);
+            searchers[manufacturerQueries[p]][p][FOCUS_ONE] += manufacturer;
+            searchers[componentQueries[p]][p][FOCUS_ONE] += u[FOCUS_ONE] - manufacturer;
+            searchers[productQueries[p]][p][FOCUS_TWO] += u[FOCUS_TWO];
+            // informational users pick a focus level at random, and on F1
+            // the manufacturer or the component at random
+            int left = u[INFORMATIONAL];
+            int f0 = binomial(left, 1d / 3);
+            int f1 = binomial(left - f0, 0.5);
+            int f1m = binomial(f1, 0.5);
+            int f1c = f1 - f1m;
+            searchers[f0Query][p][INFORMATIONAL] += f0;
+            searchers[manufacturerQueries[p]][p][INFORMATIONAL] += f1m;
+            searchers[componentQueries[p]][p][INFORMATIONAL] += f1c;
+            searchers[productQueries[p]][p][INFORMATIONAL] += left - f0 - f1;
+        }
+        int[][] converted = new int[products.length][STATES];
+        int[] ranked = new int[advertisers];
+        for (int batch = 0; batch < BATCHES; batch++) {
+            for (int q = 0; q < queries; q++) {
+                int shown = rank(q, ranked);
+                if (shown == 0) {
+                    continue;
+                }
+                for (int p = 0; p < products.length; p++) {
+                    for (int s = INFORMATIONAL; s <= FOCUS_TWO; s++) {
+                        int total = searchers[q][p][s];
+                        // split the searchers evenly over the batches
+                        int count = total * (batch + 1) / BATCHES - total * batch / BATCHES;
+                        if (count > 0) {
+                            search(q, p, s, count, ranked, shown, converted);
+                        }
+                    }
+                }
+            }
+        }
+        for (int p = 0; p < products.length; p++) {
+            for (int s = FOCUS_ZERO; s <= FOCUS_TWO; s++) {
+                int moved = Math.min(converted[p][s], users[p][s]);
+                users[p][s] -= moved;
+                users[p][TRANSACTED] += moved;
+            }
+            transition(p);
+        }
+        for (int a = 0; a < advertisers; a++) {
+            // slide the distribution window
+            System.arraycopy(windows[a], 0, windows[a], 1, DISTRIBUTION_WINDOW - 1);
+            windows[a][0] = today[a];
+            for (int q = 0; q < queries; q++) {
+                totalRevenue[a] += revenues[a][q];
+                totalCost[a] += costs[a][q];
+                totalConversions[a] += conversions[a][q];
+                totalClicks[a] += clicks[a][q];
+                totalImpressions[a] += regularImpressions[a][q] + promotedImpressions[a][q];
+            }
+        }
+    }
+
+    /**
+     * Ranks the ads still in the query's auction by squashed bid.
+     * @return the number shown
+     */
+    private int rank(int q, int[] ranked) {
+        int n = 0, queries = queryIndex.size();
+        for (int a = 0; a < agents.size(); a++) {
+            if (!(bids[a][q] > 0) || bids[a][q] * factors[a][q] < regularReserve || exhausted[a * (queries + 1) + q] || exhausted[a * (queries + 1) + queries]) {
+                continue;
+            }
+            double score = bids[a][q] * factors[a][q];
+            int j = n++;
+            while (j > 0 && bids[ranked[j - 1]][q] * factors[ranked[j - 1]][q] < score) {
+                ranked[j] = ranked[j - 1];
+                j--;
+            }
+            ranked[j] = a;
+        }
+        return Math.min(n, REGULAR_SLOTS);
+    }
+
+    /**
+     * Runs a batch of one product's users in one state through the query's ranked ads.
+     */
+    private void search(int q, int p, int state, int count, int[] ranked, int shown, int[][] converted) {
+        int queries = queryIndex.size();
+        int viewers = count;
+        for (int i = 0; i < shown; i++) {
+            int a = ranked[i];
+            double score = bids[a][q] * factors[a][q];
+            boolean promoted = i < PROMOTED_SLOTS && score >= promotedReserve;
+            if (promoted) {
+                promotedImpressions[a][q] += count;
+            } else {
+                regularImpressions[a][q] += count;
+            }
+            positionSums[a][q] += (i + 1) * (double) count;
+            if (viewers == 0) {
+                continue;
+            }
+            double next = i + 1 < shown ? bids[ranked[i + 1]][q] * factors[ranked[i + 1]][q] : 0d;
+            double cpc = Math.max(next, promoted ? promotedReserve : regularReserve) / factors[a][q];
+            Product target = ads[a][q].getProduct();
+            double boost = target == null ? 1d : target.equals(products[p]) ? 1d + TARGET_EFFECT : 1d / (1d + TARGET_EFFECT);
+            if (promoted) {
+                boost *= 1d + PROMOTED_BONUS;
+            }
+            int c = binomial(viewers, AuctionKernel.eta(effects[a][q], boost));
+            // stop clicking once a spend limit is reached
+            double room = Math.min(limits[a][q] - costs[a][q], campaignLimits[a] - spent[a]);
+            if (c * cpc > room) {
+                c = (int) Math.max(0d, Math.floor(room / cpc));
+                exhausted[a * (queries + 1) + (limits[a][q] - costs[a][q] <= campaignLimits[a] - spent[a] ? q : queries)] = true;
+            }
+            int v = 0;
+            if (c > 0 && state != INFORMATIONAL) {
+                v = binomial(c, conversionProbability(a, p, state));
+                double profit = catalog.getSalesProfit(products[p]);
+                if (products[p].getManufacturer().equals(infos[a].getManufacturerSpecialty())) {
+                    profit *= 1d + MANUFACTURER_BONUS;
+                }
+                conversions[a][q] += v;
+                revenues[a][q] += v * profit;
+                today[a] += v;
+                converted[p][state] += v;
+            }
+            clicks[a][q] += c;
+            costs[a][q] += c * cpc;
+            spent[a] += c * cpc;
+            viewers = binomial(viewers - v, continuations[q]);
+        }
+    }
+
+    private double conversionProbability(int a, int p, int state) {
+        double focus = state == FOCUS_ZERO ? 0.1 : state == FOCUS_ONE ? 0.2 : 0.3;
+        int used = today[a];
+        for (int d = 0; d < DISTRIBUTION_WINDOW - 1; d++) {
+            used += windows[a][d];
+        }
+        double pr = focus * Math.pow(DISCOUNTER, Math.max(0, used - infos[a].getDistributionCapacity()));
+        if (products[p].getComponent().equals(infos[a].getComponentSpecialty())) {
+            pr = AuctionKernel.eta(pr, 1d + COMPONENT_BONUS);
+        }
+        return pr;
+    }
+
+    private void transition(int p) {
+        int[] from = users[p], to = new int[STATES];
+        double search = uniform() < BURST_PROBABILITY ? BURST_SEARCH : SEARCH;
+        for (int s = 0; s < STATES; s++) {
+            int left = from[s];
+            double mass = 1d;
+            for (int t = 0; t < STATES && left > 0; t++) {
+                double pr = TRANSITIONS[s][t];
+                if (s == NON_SEARCHING) {
+                    pr = t == NON_SEARCHING ? 1d - search : t == INFORMATIONAL ? search : 0d;
+                }
+                int k = t == STATES - 1 || pr >= mass ? left : binomial(left, pr / mass);
+                to[t] += k;
+                left -= k;
+                mass -= pr;
+            }
+        }
+        users[p] = to;
+    }
+
+    /**
+     * @return a binomial draw, from the normal approximation when n is large
+     */
+    private int binomial(int n, double p) {
+        if (n <= 0 || !(p > 0)) {
+            return 0;
+        }
+        if (p >= 1) {
+            return n;
+        }
+        if (n < 30) {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                if (uniform() < p) {
+                    k++;
+                }
+            }
+            return k;
+        }
+        double mean = n * p;
+        // a sum of four uniforms is close enough to normal here
+        double z = (uniform() + uniform() + uniform() + uniform() - 2d) * SQRT3;
+        long k = Math.round(mean + Math.sqrt(mean * (1d - p)) * z);
+        return (int) Math.max(0, Math.min(n, k));
+    }
+
+    private double uniform() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (random >>> 11) * 0x1.0p-53;
+    }
+
+    private QueryReport createQueryReport(int a) {
+        QueryReport report = new QueryReport();
+        for (int q = 0; q < queryIndex.size(); q++) {
+            // by entry index; looking entries up by query is a linear scan
+            int i = report.addQuery(queryIndex.get(q));
+            report.setImpressions(i, regularImpressions[a][q], promotedImpressions[a][q]);
+            report.setClicks(i, clicks[a][q]);
+            report.setCost(i, costs[a][q]);
+            report.setPositionSum(i, positionSums[a][q]);
+            for (int o = 0; o < agents.size(); o++) {
+                int impressions = regularImpressions[o][q] + promotedImpressions[o][q];
+                report.setAdAndPosition(i, names.get(o), ads[o][q], impressions == 0 ? Double.NaN : positionSums[o][q] / impressions);
+            }
+        }
+        return report;
+    }
+
+    private SalesReport createSalesReport(int a) {
+        SalesReport report = new SalesReport();
+        for (int q = 0; q < queryIndex.size(); q++) {
+            int i = report.addQuery(queryIndex.get(q));
+            report.setConversionsAndRevenue(i, conversions[a][q], revenues[a][q]);
+        }
+        return report;
+    }
+
+    public int getAdvertiserCount() {
+        return names.size();
+    }
+
+    public String getName(int advertiser) {
+        return names.get(advertiser);
+    }
+
+    public Agent getAgent(int advertiser) {
+        return agents.get(advertiser);
+    }
+
+    public AdvertiserInfo getAdvertiserInfo(int advertiser) {
+        return infos[advertiser];
+    }
+
+    public double getRevenue(int advertiser) {
+        return totalRevenue[advertiser];
+    }
+
+    public double getCost(int advertiser) {
+        return totalCost[advertiser];
+    }
+
+    public double getProfit(int advertiser) {
+        return totalRevenue[advertiser] - totalCost[advertiser];
+    }
+
+    public int getConversions(int advertiser) {
+        return totalConversions[advertiser];
+    }
+
+    public int getClicks(int advertiser) {
+        return totalClicks[advertiser];
+    }
+
+    public int getImpressions(int advertiser) {
+        return totalImpressions[advertiser];
+    }
+
+    /**
+     * Plays a game between agents given by class name and prints each one's result.
+     * @param args [-seed n] [-days n] agent classes
+     */
+    public static void main(String[] args) throws Exception {
+        long seed = System.currentTimeMillis();
+        int days = DEFAULT_DAYS, first = 0;
+        while (first + 1 < args.length && args[first].startsWith("-")) {
+            if (args[first].equals("-seed")) {
+                seed = Long.parseLong(args[first + 1]);
+            } else if (args[first].equals("-days")) {
+                days = Integer.parseInt(args[first + 1]);
+            } else {
+                break;
+            }
+            first += 2;
+        }
+        if (first >= args.length) {
+            System.err.println("usage: MarketSimulator [-seed n] [-days n] agentClass...");
+            System.exit(1);
+        }
+        MarketSimulator simulator = new MarketSimulator(seed);
+        simulator.setNumberOfDays(days);
+        for (int i = first; i < args.length; i++) {
+            simulator.addAdvertiser("adv" + (i - first + 1), (Agent) Class.forName(args[i]).getDeclaredConstructor().newInstance());
+        }
+        long start = System.nanoTime();
+        simulator.run();
+        long millis = (System.nanoTime() - start) / 1000000L;
+        for (int a = 0; a < simulator.getAdvertiserCount(); a++) {
+            System.out.println(simulator.getName(a) + " " + args[first + a] + " capacity " + simulator.getAdvertiserInfo(a).getDistributionCapacity() + " profit " + Math.round(simulator.getProfit(a)) + " revenue " + Math.round(simulator.getRevenue(a)) + " cost " + Math.round(simulator.getCost(a)) + " conversions " + simulator.getConversions(a) + " clicks " + simulator.getClicks(a));
+        }
+        System.out.println("seed " + seed + ", " + days + " days in " + millis + " ms");
+    }
+}
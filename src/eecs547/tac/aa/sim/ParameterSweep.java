@@ -0,0 +1,678 @@
+package eecs547.tac.aa.sim;
+
+import eecs547.tac.aa.BidParameters;
+import edu.umich.eecs.tac.props.RetailCatalog;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import se.sics.tasim.aw.Agent;
+
+/**
+ * Searches the {@link BidParameters} of an agent version by playing
+ * simulated games: each candidate vector gets a seat in a number of
+ * {@link MarketSimulator} games against a fixed field of opponents and is
+ * scored by its mean profit. Every candidate plays the same games, with
+ * the same seeds, seats and opponents, so the differences between
+ * candidates are not drowned by the differences between games.
+ * <p>
+ * The search is over some of the entries, the rest stay at the agent's
+ * own values, which are always evaluated first for reference. A grid tries
+ * evenly spaced values in each entry's range, random search draws vectors
+ * uniformly from the ranges, and Bayesian search fits a Gaussian process
+ * to the scores so far and plays the vectors with the highest expected
+ * improvement next, a batch at a time. All the games of a batch of
+ * candidates are played in parallel on one pool, with the agents' graphs
+ * off. A candidate whose games all fail is ranked last and left out of the
+ * fit.
+ *
+ * @author Augie
+ */
+public class ParameterSweep {
+
+    public static final String GRID = "grid", RANDOM = "random", BAYES = "bayes";
+    /**
+     * Correlation length of the Gaussian process over the unit cube.
+     */
+    private static final double LENGTH_SCALE = 0.25;
+    /**
+     * Random points the expected improvement is maximized over.
+     */
+    private static final int SEARCH_POINTS = 2000, LOCAL_POINTS = 500;
+    private final Constructor<? extends Agent> constructor;
+    private final BidParameters base;
+    private final List<Class<? extends Agent>> opponents = new ArrayList<Class<? extends Agent>>();
+    private final List<Evaluation> evaluations = new ArrayList<Evaluation>();
+    private final long seed;
+    private final Random random;
+    private int[] dimensions;
+    private int games = 12, advertisers = Tournament.DEFAULT_ADVERTISERS, days = MarketSimulator.DEFAULT_DAYS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private RetailCatalog catalog;
+
+    /**
+     * @param agentClass the version searched, with a constructor taking its {@link BidParameters}
+     * @param base the values of the entries not searched
+     */
+    public ParameterSweep(Class<? extends Agent> agentClass, BidParameters base, long seed) throws NoSuchMethodException {
+        this.constructor = agentClass.getConstructor(BidParameters.class);
+        this.base = base;
+        this.seed = seed;
+        random = new Random(seed);
+        dimensions = new int[BidParameters.SIZE];
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensions[i] = i;
+        }
+    }
+
+    /**
+     * @param indices the {@link BidParameters} entries to search
+     */
+    public void setDimensions(int[] indices) {
+        if (indices.length == 0) {
+            throw new IllegalArgumentException("nothing to search");
+        }
+        dimensions = indices.clone();
+    }
+
+    public void addOpponent(Class<? extends Agent> agentClass) {
+        opponents.add(agentClass);
+    }
+
+    /**
+     * @param games games each candidate plays
+     */
+    public void setGames(int games) {
+        if (games < 1) {
+            throw new IllegalArgumentException("games must be positive: " + games);
+        }
+        this.games = games;
+    }
+
+    public void setAdvertisers(int advertisers) {
+        if (advertisers < 2) {
+            throw new IllegalArgumentException("need a seat for an opponent: " + advertisers);
+        }
+        this.advertisers = advertisers;
+    }
+
+    public void setNumberOfDays(int days) {
+        if (days < 1) {
+            throw new IllegalArgumentException("days must be positive: " + days);
+        }
+        this.days = days;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Plays every combination of evenly spaced values of the searched entries.
+     * @param levels values per entry, the range's ends included
+     */
+    public void grid(int levels) throws InterruptedException {
+        if (levels < 1) {
+            throw new IllegalArgumentException("levels must be positive: " + levels);
+        }
+        List<BidParameters> candidates = new ArrayList<BidParameters>();
+        candidates.add(base);
+        int[] counter = new int[dimensions.length];
+        while (true) {
+            double[] u = new double[dimensions.length];
+            for (int d = 0; d < dimensions.length; d++) {
+                u[d] = levels == 1 ? 0.5 : (double) counter[d] / (levels - 1);
+            }
+            candidates.add(toParameters(u));
+            int d = 0;
+            while (d < counter.length && ++counter[d] == levels) {
+                counter[d++] = 0;
+            }
+            if (d == counter.length) {
+                break;
+            }
+        }
+        evaluate(candidates);
+    }
+
+    /**
+     * Plays vectors drawn uniformly from the ranges of the searched entries.
+     * @param candidates vectors to play, the agent's own included
+     */
+    public void random(int candidates) throws InterruptedException {
+        List<BidParameters> batch = new ArrayList<BidParameters>();
+        batch.add(base);
+        for (int c = 1; c < candidates; c++) {
+            batch.add(toParameters(randomPoint()));
+        }
+        evaluate(batch);
+    }
+
+    /**
+     * Plays a few random vectors, then batches of the vectors with the
+     * highest expected improvement under a Gaussian process fitted to all
+     * the scores so far. Within a batch each chosen vector is assumed to
+     * score its predicted mean, so the rest of the batch looks elsewhere.
+     * @param candidates vectors to play in all, the agent's own included
+     * @param batch vectors played at a time
+     */
+    public void bayes(int candidates, int batch) throws InterruptedException {
+        if (batch < 1) {
+            throw new IllegalArgumentException("batch must be positive: " + batch);
+        }
+        int initial = Math.min(candidates, Math.max(batch, 2 * dimensions.length + 1));
+        random(initial);
+        while (evaluations.size() < candidates) {
+            int n = Math.min(batch, candidates - evaluations.size());
+            List<double[]> points = new ArrayList<double[]>();
+            List<Double> scores = new ArrayList<Double>(), noises = new ArrayList<Double>();
+            // a candidate whose games all failed has no score to fit
+            List<Evaluation> played = new ArrayList<Evaluation>();
+            for (Evaluation e : evaluations) {
+                if (e.getGames() > 0) {
+                    played.add(e);
+                }
+            }
+            List<BidParameters> next = new ArrayList<BidParameters>();
+            if (played.isEmpty()) {
+                for (int k = 0; k < n; k++) {
+                    next.add(toParameters(randomPoint()));
+                }
+                evaluate(next);
+                continue;
+            }
+            double mean = 0d, variance = 0d;
+            for (Evaluation e : played) {
+                mean += e.getMeanProfit();
+            }
+            mean /= played.size();
+            for (Evaluation e : played) {
+                variance += (e.getMeanProfit() - mean) * (e.getMeanProfit() - mean);
+            }
+            double scale = Math.sqrt(Math.max(variance / played.size(), 1e-12));
+            for (Evaluation e : played) {
+                points.add(toUnit(e.getParameters()));
+                scores.add((e.getMeanProfit() - mean) / scale);
+                double error = e.getProfitError() / scale;
+                noises.add(error * error + 1e-6);
+            }
+            for (int k = 0; k < n; k++) {
+                GaussianProcess gp = new GaussianProcess(points, scores, noises);
+                double[] x = maximizeImprovement(gp, points, scores);
+                next.add(toParameters(x));
+                // believe the prediction until the games say otherwise
+                points.add(x);
+                scores.add(gp.mean(x));
+                noises.add(1e-6);
+            }
+            evaluate(next);
+        }
+    }
+
+    private double[] maximizeImprovement(GaussianProcess gp, List<double[]> points, List<Double> scores) {
+        double best = Double.NEGATIVE_INFINITY;
+        int bestIndex = 0;
+        for (int i = 0; i < scores.size(); i++) {
+            if (scores.get(i) > best) {
+                best = scores.get(i);
+                bestIndex = i;
+            }
+        }
+        double[] argmax = null;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < SEARCH_POINTS + LOCAL_POINTS; i++) {
+            double[] x;
+            if (i < SEARCH_POINTS) {
+                x = randomPoint();
+            } else {
+                // look closely around the best so far
+                x = points.get(bestIndex).clone();
+                for (int d = 0; d < x.length; d++) {
+                    x[d] = Math.min(1d, Math.max(0d, x[d] + 0.05 * random.nextGaussian()));
+                }
+            }
+            double ei = gp.expectedImprovement(x, best);
+            if (argmax == null || ei > max) {
+                max = ei;
+                argmax = x;
+            }
+        }
+        return argmax;
+    }
+
+    private double[] randomPoint() {
+        double[] u = new double[dimensions.length];
+        for (int d = 0; d < u.length; d++) {
+            u[d] = random.nextDouble();
+        }
+        return u;
+    }
+
+    /**
+     * @param u the searched entries, each scaled to [0, 1] over its range
+     */
+    private BidParameters toParameters(double[] u) {
+        BidParameters p = base;
+        for (int d = 0; d < dimensions.length; d++) {
+            int i = dimensions[d];
+            double lower = BidParameters.getLowerBound(i), upper = BidParameters.getUpperBound(i);
+            p = p.with(i, lower + u[d] * (upper - lower));
+        }
+        return p;
+    }
+
+    private double[] toUnit(BidParameters p) {
+        double[] u = new double[dimensions.length];
+        for (int d = 0; d < dimensions.length; d++) {
+            int i = dimensions[d];
+            double lower = BidParameters.getLowerBound(i), upper = BidParameters.getUpperBound(i);
+            u[d] = Math.min(1d, Math.max(0d, (p.get(i) - lower) / (upper - lower)));
+        }
+        return u;
+    }
+
+    /**
+     * Plays every candidate's games on one pool and records the scores.
+     */
+    private void evaluate(List<BidParameters> candidates) throws InterruptedException {
+        if (opponents.isEmpty()) {
+            throw new IllegalStateException("no opponents");
+        }
+        if (catalog == null) {
+            catalog = MarketSimulator.createRetailCatalog(seed);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, candidates.size() * games));
+        try {
+            List<Future<Double>> results = new ArrayList<Future<Double>>(candidates.size() * games);
+            for (final BidParameters candidate : candidates) {
+                for (int g = 0; g < games; g++) {
+                    final int game = g;
+                    results.add(executor.submit(new Callable<Double>() {
+
+                        public Double call() throws Exception {
+                            return play(candidate, game);
+                        }
+                    }));
+                }
+            }
+            for (int c = 0; c < candidates.size(); c++) {
+                Evaluation evaluation = new Evaluation(candidates.get(c));
+                for (int g = 0; g < games; g++) {
+                    try {
+                        evaluation.add(results.get(c * games + g).get());
+                    } catch (ExecutionException e) {
+                        evaluation.failures++;
+                        System.err.println(candidates.get(c) + ", game " + g + " failed: " + e.getCause());
+                    }
+                }
+                evaluations.add(evaluation);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the candidate's profit in the game
+     */
+    private double play(BidParameters candidate, int game) throws Exception {
+        MarketSimulator simulator = new MarketSimulator(seed * 0x9E3779B97F4A7C15L + game);
+        simulator.setRetailCatalog(catalog);
+        simulator.setNumberOfDays(days);
+        simulator.setSimulationId(game + 1);
+        // the same seat and opponents in a game for every candidate
+        int seat = game % advertisers;
+        for (int s = 0, o = game; s < advertisers; s++) {
+            if (s == seat) {
+                simulator.addAdvertiser("adv" + (s + 1), constructor.newInstance(candidate));
+            } else {
+                simulator.addAdvertiser("adv" + (s + 1), opponents.get(o++ % opponents.size()).getDeclaredConstructor().newInstance());
+            }
+        }
+        simulator.run();
+        return simulator.getProfit(seat);
+    }
+
+    /**
+     * @return every candidate played so far, best mean profit first
+     */
+    public List<Evaluation> getRanked() {
+        List<Evaluation> ranked = new ArrayList<Evaluation>(evaluations);
+        Collections.sort(ranked, new Comparator<Evaluation>() {
+
+            public int compare(Evaluation a, Evaluation b) {
+                return Double.compare(b.getMeanProfit(), a.getMeanProfit());
+            }
+        });
+        return ranked;
+    }
+
+    /**
+     * @return the agent's own values, evaluated first
+     */
+    public Evaluation getBaseline() {
+        return evaluations.isEmpty() ? null : evaluations.get(0);
+    }
+
+    /**
+     * Writes the ranked results as tab separated values, one candidate per line.
+     */
+    public void write(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            StringBuilder header = new StringBuilder("rank\tprofit\terror\tgames");
+            for (int i = 0; i < BidParameters.SIZE; i++) {
+                header.append('\t').append(BidParameters.getName(i));
+            }
+            out.println(header);
+            int rank = 1;
+            for (Evaluation e : getRanked()) {
+                StringBuilder line = new StringBuilder();
+                line.append(rank++).append('\t').append(e.getMeanProfit()).append('\t').append(e.getProfitError()).append('\t').append(e.getGames());
+                for (int i = 0; i < BidParameters.SIZE; i++) {
+                    line.append('\t').append(e.getParameters().get(i));
+                }
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * One candidate's profit over its games.
+     */
+    public static class Evaluation {
+
+        private final BidParameters parameters;
+        private int games = 0, failures = 0;
+        private double profit = 0d, profitSquares = 0d;
+
+        Evaluation(BidParameters parameters) {
+            this.parameters = parameters;
+        }
+
+        void add(double p) {
+            games++;
+            profit += p;
+            profitSquares += p * p;
+        }
+
+        public BidParameters getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return games played to the end
+         */
+        public int getGames() {
+            return games;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public double getMeanProfit() {
+            return games == 0 ? Double.NEGATIVE_INFINITY : profit / games;
+        }
+
+        /**
+         * @return the standard error of the mean profit
+         */
+        public double getProfitError() {
+            if (games < 2) {
+                return 0d;
+            }
+            double mean = profit / games;
+            return Math.sqrt(Math.max(0d, profitSquares / games - mean * mean) / (games - 1));
+        }
+    }
+
+    /**
+     * Gaussian process regression with a squared exponential kernel of unit
+     * variance over standardized scores, each with its own noise.
+     */
+    private static class GaussianProcess {
+
+        private final List<double[]> points;
+        // lower Cholesky factor of the kernel matrix plus noise, row major
+        private final double[] factor;
+        private final double[] alpha;
+        private final int n;
+
+        GaussianProcess(List<double[]> points, List<Double> scores, List<Double> noises) {
+            this.points = points;
+            n = points.size();
+            factor = new double[n * n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j <= i; j++) {
+                    double sum = kernel(points.get(i), points.get(j)) + (i == j ? noises.get(i) : 0d);
+                    for (int k = 0; k < j; k++) {
+                        sum -= factor[i * n + k] * factor[j * n + k];
+                    }
+                    factor[i * n + j] = i == j ? Math.sqrt(Math.max(sum, 1e-12)) : sum / factor[j * n + j];
+                }
+            }
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                y[i] = scores.get(i);
+            }
+            alpha = backSubstitute(forwardSubstitute(y));
+        }
+
+        private static double kernel(double[] a, double[] b) {
+            double d2 = 0d;
+            for (int i = 0; i < a.length; i++) {
+                d2 += (a[i] - b[i]) * (a[i] - b[i]);
+            }
+            return Math.exp(-d2 / (2d * LENGTH_SCALE * LENGTH_SCALE));
+        }
+
+        /**
+         * Solves L v = b.
+         */
+        private double[] forwardSubstitute(double[] b) {
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++) {
+                double sum = b[i];
+                for (int k = 0; k < i; k++) {
+                    sum -= factor[i * n + k] * v[k];
+                }
+                v[i] = sum / factor[i * n + i];
+            }
+            return v;
+        }
+
+        /**
+         * Solves L^T x = v.
+         */
+        private double[] backSubstitute(double[] v) {
+            double[] x = new double[n];
+            for (int i = n - 1; i >= 0; i--) {
+                double sum = v[i];
+                for (int k = i + 1; k < n; k++) {
+                    sum -= factor[k * n + i] * x[k];
+                }
+                x[i] = sum / factor[i * n + i];
+            }
+            return x;
+        }
+
+        private double[] covariances(double[] x) {
+            double[] k = new double[n];
+            for (int i = 0; i < n; i++) {
+                k[i] = kernel(points.get(i), x);
+            }
+            return k;
+        }
+
+        double mean(double[] x) {
+            double[] k = covariances(x);
+            double m = 0d;
+            for (int i = 0; i < n; i++) {
+                m += k[i] * alpha[i];
+            }
+            return m;
+        }
+
+        double expectedImprovement(double[] x, double best) {
+            double[] k = covariances(x);
+            double m = 0d;
+            for (int i = 0; i < n; i++) {
+                m += k[i] * alpha[i];
+            }
+            double[] v = forwardSubstitute(k);
+            double variance = 1d;
+            for (int i = 0; i < n; i++) {
+                variance -= v[i] * v[i];
+            }
+            double sigma = Math.sqrt(Math.max(variance, 1e-12));
+            double z = (m - best) / sigma;
+            return (m - best) * cdf(z) + sigma * Math.exp(-0.5 * z * z) / Math.sqrt(2d * Math.PI);
+        }
+
+        /**
+         * The standard normal distribution function, after Abramowitz and Stegun 7.1.26.
+         */
+        private static double cdf(double z) {
+            double t = 1d / (1d + 0.3275911 * Math.abs(z) / Math.sqrt(2d));
+            double erf = 1d - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-z * z / 2d);
+            return z >= 0 ? 0.5 * (1d + erf) : 0.5 * (1d - erf);
+        }
+    }
+
+    /**
+     * Runs a search and writes the ranked table. The agents' own output is
+     * dropped unless -verbose is given.
+     * @param args [-agent class] [-search grid|random|bayes] [-params name,...] [-levels n]
+     * [-candidates n] [-batch n] [-games n] [-threads n] [-advertisers n] [-seed n] [-days n]
+     * [-out file] [-verbose] [opponent classes]
+     */
+    public static void main(String[] args) throws Exception {
+        String agentClass = "eecs547.tac.aa.v4.TigerBloodV4", search = RANDOM, params = null, out = "sweep.tsv";
+        long seed = System.currentTimeMillis();
+        int levels = 3, candidates = 32, batch = Runtime.getRuntime().availableProcessors(), games = 12, threads = Runtime.getRuntime().availableProcessors();
+        int advertisers = Tournament.DEFAULT_ADVERTISERS, days = MarketSimulator.DEFAULT_DAYS;
+        boolean verbose = false;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-")) {
+            if (args[first].equals("-verbose")) {
+                verbose = true;
+                first++;
+                continue;
+            }
+            if (first + 1 >= args.length) {
+                break;
+            }
+            String option = args[first], value = args[first + 1];
+            if (option.equals("-agent")) {
+                agentClass = value;
+            } else if (option.equals("-search")) {
+                search = value;
+            } else if (option.equals("-params")) {
+                params = value;
+            } else if (option.equals("-levels")) {
+                levels = Integer.parseInt(value);
+            } else if (option.equals("-candidates")) {
+                candidates = Integer.parseInt(value);
+            } else if (option.equals("-batch")) {
+                batch = Integer.parseInt(value);
+            } else if (option.equals("-games")) {
+                games = Integer.parseInt(value);
+            } else if (option.equals("-threads")) {
+                threads = Integer.parseInt(value);
+            } else if (option.equals("-advertisers")) {
+                advertisers = Integer.parseInt(value);
+            } else if (option.equals("-seed")) {
+                seed = Long.parseLong(value);
+            } else if (option.equals("-days")) {
+                days = Integer.parseInt(value);
+            } else if (option.equals("-out")) {
+                out = value;
+            } else {
+                System.err.println("unknown option: " + option);
+                System.exit(1);
+            }
+            first += 2;
+        }
+        Class<? extends Agent> agent = Class.forName(agentClass).asSubclass(Agent.class);
+        BidParameters base = (BidParameters) agent.getField("DEFAULT_PARAMETERS").get(null);
+        ParameterSweep sweep = new ParameterSweep(agent, base, seed);
+        if (params != null) {
+            String[] names = params.split(",");
+            int[] indices = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                indices[i] = BidParameters.indexOf(names[i].trim());
+                if (indices[i] < 0) {
+                    System.err.println("unknown parameter: " + names[i]);
+                    System.exit(1);
+                }
+            }
+            sweep.setDimensions(indices);
+        }
+        String[] opponents = Tournament.DEFAULT_AGENTS;
+        if (first < args.length) {
+            opponents = new String[args.length - first];
+            System.arraycopy(args, first, opponents, 0, opponents.length);
+        }
+        for (String opponent : opponents) {
+            sweep.addOpponent(Class.forName(opponent).asSubclass(Agent.class));
+        }
+        sweep.setGames(games);
+        sweep.setThreads(threads);
+        sweep.setAdvertisers(advertisers);
+        sweep.setNumberOfDays(days);
+        PrintStream console = System.out;
+        if (!verbose) {
+            System.setOut(new PrintStream(new OutputStream() {
+
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        try {
+            if (search.equals(GRID)) {
+                sweep.grid(levels);
+            } else if (search.equals(BAYES)) {
+                sweep.bayes(candidates, batch);
+            } else if (search.equals(RANDOM)) {
+                sweep.random(candidates);
+            } else {
+                throw new IllegalArgumentException("unknown search: " + search);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        long millis = (System.nanoTime() - start) / 1000000L;
+        sweep.write(new File(out));
+        List<Evaluation> ranked = sweep.getRanked();
+        for (int r = 0; r < Math.min(10, ranked.size()); r++) {
+            Evaluation e = ranked.get(r);
+            console.println(String.format("%3d %10.0f +/- %6.0f  %s", r + 1, e.getMeanProfit(), e.getProfitError(), e.getParameters()));
+        }
+        Evaluation baseline = sweep.getBaseline();
+        console.println(String.format("own %10.0f +/- %6.0f  %s", baseline.getMeanProfit(), baseline.getProfitError(), baseline.getParameters()));
+        console.println(ranked.size() + " candidates, " + ranked.size() * games + " games in " + millis + " ms, ranked in " + out);
+    }
+}
@@ -0,0 +1,326 @@
+package eecs547.tac.aa.sim;
+
+import edu.umich.eecs.tac.props.RetailCatalog;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import se.sics.tasim.aw.Agent;
+
+/**
+ * Plays many {@link MarketSimulator} games between agent versions at once,
+ * one game per worker thread, and totals the results per version. Every
+ * game gets fresh instances of its agents, so nothing an agent learns
+ * carries over to another game or another thread, while all games share
+ * one read-only catalog drawn from the tournament's seed.
+ * <p>
+ * The seats of game g are filled with the entrants in turn starting from
+ * entrant g, so over a multiple of the number of entrants every version
+ * plays from every seat equally often. Each game has its own seed derived
+ * from the tournament's, so a tournament can be played again exactly as
+ * far as the agents themselves are repeatable. The agents' graphs are off,
+ * as in every simulator game.
+ *
+ * @author Augie
+ */
+public class Tournament {
+
+    public static final int DEFAULT_ADVERTISERS = 8;
+    /**
+     * The versions played when no agents are named.
+     */
+    public static final String[] DEFAULT_AGENTS = {
+        "eecs547.tac.aa.naive.NaiveTigerBlood",
+        "eecs547.tac.aa.v1.TigerBloodV1",
+        "eecs547.tac.aa.v2.TigerBloodV2",
+        "eecs547.tac.aa.v3.TigerBloodV3",
+        "eecs547.tac.aa.v4.TigerBloodV4",
+        "eecs547.tac.aa.v5.TigerBloodV4"
+    };
+    private final List<String> labels = new ArrayList<String>();
+    private final List<Class<? extends Agent>> agentClasses = new ArrayList<Class<? extends Agent>>();
+    private final long seed;
+    private int games = 1, advertisers = DEFAULT_ADVERTISERS, days = MarketSimulator.DEFAULT_DAYS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Standing[] standings = new Standing[0];
+    private int failures = 0;
+
+    public Tournament(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Enters an agent version; each game makes its own instances.
+     * @param label the name its results are totalled under
+     */
+    public void addEntrant(String label, Class<? extends Agent> agentClass) {
+        if (labels.contains(label)) {
+            throw new IllegalArgumentException("duplicate entrant: " + label);
+        }
+        labels.add(label);
+        agentClasses.add(agentClass);
+    }
+
+    public void setGames(int games) {
+        if (games < 1) {
+            throw new IllegalArgumentException("games must be positive: " + games);
+        }
+        this.games = games;
+    }
+
+    /**
+     * @param advertisers agents in each game
+     */
+    public void setAdvertisers(int advertisers) {
+        if (advertisers < 1) {
+            throw new IllegalArgumentException("advertisers must be positive: " + advertisers);
+        }
+        this.advertisers = advertisers;
+    }
+
+    public void setNumberOfDays(int days) {
+        if (days < 1) {
+            throw new IllegalArgumentException("days must be positive: " + days);
+        }
+        this.days = days;
+    }
+
+    /**
+     * @param threads games played at the same time
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Plays all the games and totals the results. A game that throws is
+     * left out of the totals and counted in {@link #getFailures()}.
+     */
+    public void run() throws InterruptedException {
+        if (labels.isEmpty()) {
+            throw new IllegalStateException("no entrants");
+        }
+        // every game of the tournament is played with the same catalog
+        final RetailCatalog catalog = MarketSimulator.createRetailCatalog(seed);
+        standings = new Standing[labels.size()];
+        for (int e = 0; e < standings.length; e++) {
+            standings[e] = new Standing(labels.get(e));
+        }
+        failures = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, games));
+        try {
+            List<Future<MarketSimulator>> results = new ArrayList<Future<MarketSimulator>>(games);
+            for (int g = 0; g < games; g++) {
+                final int game = g;
+                results.add(executor.submit(new Callable<MarketSimulator>() {
+
+                    public MarketSimulator call() throws Exception {
+                        return play(game, catalog);
+                    }
+                }));
+            }
+            // totalled here in game order, so the standings need no locking
+            for (int g = 0; g < games; g++) {
+                MarketSimulator simulator;
+                try {
+                    simulator = results.get(g).get();
+                } catch (ExecutionException e) {
+                    failures++;
+                    System.err.println("game " + g + " failed: " + e.getCause());
+                    continue;
+                }
+                int winner = 0;
+                for (int s = 0; s < advertisers; s++) {
+                    standings[getEntrant(g, s)].add(simulator, s);
+                    if (simulator.getProfit(s) > simulator.getProfit(winner)) {
+                        winner = s;
+                    }
+                }
+                standings[getEntrant(g, winner)].wins++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private MarketSimulator play(int game, RetailCatalog catalog) throws Exception {
+        MarketSimulator simulator = new MarketSimulator(seed * 0x9E3779B97F4A7C15L + game);
+        simulator.setRetailCatalog(catalog);
+        simulator.setNumberOfDays(days);
+        simulator.setSimulationId(game + 1);
+        for (int s = 0; s < advertisers; s++) {
+            simulator.addAdvertiser("adv" + (s + 1), agentClasses.get(getEntrant(game, s)).getDeclaredConstructor().newInstance());
+        }
+        simulator.run();
+        return simulator;
+    }
+
+    /**
+     * @return the entrant in the seat of the game
+     */
+    private int getEntrant(int game, int seat) {
+        return (game + seat) % labels.size();
+    }
+
+    /**
+     * @return the results per entrant, in the order entered
+     */
+    public Standing[] getStandings() {
+        return standings;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * One version's results over the seats it played.
+     */
+    public static class Standing {
+
+        private final String label;
+        private int seats = 0, wins = 0;
+        private double profit = 0d, profitSquares = 0d, revenue = 0d, cost = 0d, conversions = 0d;
+
+        Standing(String label) {
+            this.label = label;
+        }
+
+        void add(MarketSimulator simulator, int advertiser) {
+            double p = simulator.getProfit(advertiser);
+            seats++;
+            profit += p;
+            profitSquares += p * p;
+            revenue += simulator.getRevenue(advertiser);
+            cost += simulator.getCost(advertiser);
+            conversions += simulator.getConversions(advertiser);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return games played, counting a game once per seat held
+         */
+        public int getSeats() {
+            return seats;
+        }
+
+        /**
+         * @return games in which one of its seats made the most profit
+         */
+        public int getWins() {
+            return wins;
+        }
+
+        public double getMeanProfit() {
+            return seats == 0 ? 0d : profit / seats;
+        }
+
+        /**
+         * @return the standard error of the mean profit
+         */
+        public double getProfitError() {
+            if (seats < 2) {
+                return 0d;
+            }
+            double mean = profit / seats;
+            return Math.sqrt(Math.max(0d, profitSquares / seats - mean * mean) / (seats - 1));
+        }
+
+        public double getMeanRevenue() {
+            return seats == 0 ? 0d : revenue / seats;
+        }
+
+        public double getMeanCost() {
+            return seats == 0 ? 0d : cost / seats;
+        }
+
+        public double getMeanConversions() {
+            return seats == 0 ? 0d : conversions / seats;
+        }
+    }
+
+    /**
+     * Plays a tournament and prints the standings. The agents' own output
+     * is dropped unless -verbose is given.
+     * @param args [-games n] [-threads n] [-advertisers n] [-seed n] [-days n] [-verbose] [agent classes]
+     */
+    public static void main(String[] args) throws Exception {
+        long seed = System.currentTimeMillis();
+        int games = 1, threads = Runtime.getRuntime().availableProcessors(), advertisers = DEFAULT_ADVERTISERS, days = MarketSimulator.DEFAULT_DAYS;
+        boolean verbose = false;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-")) {
+            if (args[first].equals("-verbose")) {
+                verbose = true;
+                first++;
+                continue;
+            }
+            if (first + 1 >= args.length) {
+                break;
+            }
+            if (args[first].equals("-games")) {
+                games = Integer.parseInt(args[first + 1]);
+            } else if (args[first].equals("-threads")) {
+                threads = Integer.parseInt(args[first + 1]);
+            } else if (args[first].equals("-advertisers")) {
+                advertisers = Integer.parseInt(args[first + 1]);
+            } else if (args[first].equals("-seed")) {
+                seed = Long.parseLong(args[first + 1]);
+            } else if (args[first].equals("-days")) {
+                days = Integer.parseInt(args[first + 1]);
+            } else {
+                System.err.println("usage: Tournament [-games n] [-threads n] [-advertisers n] [-seed n] [-days n] [-verbose] [agentClass...]");
+                System.exit(1);
+            }
+            first += 2;
+        }
+        String[] classNames = DEFAULT_AGENTS;
+        if (first < args.length) {
+            classNames = new String[args.length - first];
+            System.arraycopy(args, first, classNames, 0, classNames.length);
+        }
+        Tournament tournament = new Tournament(seed);
+        tournament.setGames(games);
+        tournament.setThreads(threads);
+        tournament.setAdvertisers(advertisers);
+        tournament.setNumberOfDays(days);
+        for (String className : classNames) {
+            String label = className.startsWith("eecs547.tac.aa.") ? className.substring("eecs547.tac.aa.".length()) : className;
+            tournament.addEntrant(label, Class.forName(className).asSubclass(Agent.class));
+        }
+        PrintStream out = System.out;
+        if (!verbose) {
+            System.setOut(new PrintStream(new OutputStream() {
+
+                public void write(int b) {
+                }
+
+                public void write(byte[] b, int off, int len) {
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        try {
+            tournament.run();
+        } finally {
+            System.setOut(out);
+        }
+        long millis = (System.nanoTime() - start) / 1000000L;
+        out.println(String.format("%-24s %6s %5s %10s %8s %10s %10s %8s", "agent", "seats", "wins", "profit", "+/-", "revenue", "cost", "conv"));
+        for (Standing s : tournament.getStandings()) {
+            out.println(String.format("%-24s %6d %5d %10.0f %8.0f %10.0f %10.0f %8.0f", s.getLabel(), s.getSeats(), s.getWins(), s.getMeanProfit(), s.getProfitError(), s.getMeanRevenue(), s.getMeanCost(), s.getMeanConversions()));
+        }
+        out.println("seed " + seed + ", " + games + " games of " + days + " days, " + tournament.getFailures() + " failed, in " + millis + " ms");
+    }
+}
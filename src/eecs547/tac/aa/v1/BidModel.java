@@ -1,6 +1,8 @@
 package eecs547.tac.aa.v1;
 
 import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.CapacityLedger;
+import eecs547.tac.aa.QueryIndex;
 import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Query;
 import edu.umich.eecs.tac.props.QueryReport;
@@ -21,6 +23,7 @@ public class BidModel {
     public static final double CAPACITY_LIMIT_MIN = 0.5, TOP_EARNERS = 0.2;
     protected TigerBloodV1 agent;
     private HashMap<Query, BidOptimizer> bidders = new HashMap<Query, BidOptimizer>();
+    private CapacityLedger capacityLedger;
     private boolean needToSetBidLimits = true;
 
     public BidModel(TigerBloodV1 agent) {
@@ -78,14 +81,18 @@ public class BidModel {
         return BidBundle.NO_SPEND_LIMIT;
     }
 
+    public CapacityLedger getCapacityLedger() {
+        if (capacityLedger == null) {
+            capacityLedger = new CapacityLedger(new QueryIndex(agent.querySpace), agent.advertiserInfo.getDistributionWindow());
+        }
+        return capacityLedger;
+    }
+
     public int getUsedCapacity() {
-        int used = 0;
-        for (int i = 0; i < agent.advertiserInfo.getDistributionWindow(); i++) {
-            for (BidOptimizer bo : bidders.values()) {
-                used += bo.getConversions(i);
-            }
+        if (capacityLedger == null) {
+            return 0;
         }
-        return used;
+        return capacityLedger.getUsedCapacity();
     }
 
     public void handleQueryReport(QueryReport queryReport) {
@@ -96,6 +103,7 @@ public class BidModel {
     }
 
     public void handleSalesReport(SalesReport salesReport) {
+        getCapacityLedger().handleSalesReport(salesReport);
         for (Query q : agent.querySpace) {
             getBidder(q).handleSalesReport(salesReport);
         }
@@ -12,6 +12,7 @@ import edu.umich.eecs.tac.props.RetailCatalog;
 import edu.umich.eecs.tac.props.SalesReport;
 import edu.umich.eecs.tac.props.SlotInfo;
 import eecs547.tac.aa.BlankModel;
+import eecs547.tac.aa.GraphingAgent;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Queue;
@@ -28,7 +29,7 @@ import uchicago.src.sim.analysis.Sequence;
  *
  * @author Augie
  */
-public class TigerBloodV1 extends Agent {
+public class TigerBloodV1 extends Agent implements GraphingAgent {
 
     public static final String NAME = "V1";
     /**
@@ -120,6 +121,10 @@ public class TigerBloodV1 extends Agent {
      */
     private BlankModel blankModel;
     private OpenSequenceGraph surplusGraph, revenueGraph, bidGraph, impressionGraph, conversionGraph, clickGraph, cpcGraph, cpConvGraph, positionGraph, usedCapacityGraph;
+    /**
+     * Whether the graphs are shown and saved this game, see {@link Util#isGraphsEnabled()}.
+     */
+    private boolean graphs = true, showGraphs = true;
 
     /*
      * Returns the average sales profit over all products
@@ -182,7 +187,9 @@ public class TigerBloodV1 extends Agent {
         } catch (Exception e) {
             Util.debug(e);
         }
-        bidGraph.step();
+        if (graphs) {
+            bidGraph.step();
+        }
     }
 
     /**
@@ -194,10 +201,12 @@ public class TigerBloodV1 extends Agent {
         queryReports.add(queryReport);
         gM.handleQueryReport(queryReport);
         bM.handleQueryReport(queryReport);
-        impressionGraph.step();
-        clickGraph.step();
-        cpcGraph.step();
-        positionGraph.step();
+        if (graphs) {
+            impressionGraph.step();
+            clickGraph.step();
+            cpcGraph.step();
+            positionGraph.step();
+        }
     }
 
     /**
@@ -208,11 +217,13 @@ public class TigerBloodV1 extends Agent {
     protected void handleSalesReport(SalesReport salesReport) {
         salesReports.add(salesReport);
         bM.handleSalesReport(salesReport);
-        revenueGraph.step();
-        conversionGraph.step();
-        surplusGraph.step();
-        cpConvGraph.step();
-        usedCapacityGraph.step();
+        if (graphs) {
+            revenueGraph.step();
+            conversionGraph.step();
+            surplusGraph.step();
+            cpConvGraph.step();
+            usedCapacityGraph.step();
+        }
     }
 
     /**
@@ -263,116 +274,118 @@ public class TigerBloodV1 extends Agent {
             querySpace.add(new Query(product.getManufacturer(), product.getComponent()));
         }
 
-        // set up the queries
-        for (final Query q : querySpace) {
-            surplusGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getProfit(0);
-                    } catch (Exception e) {
-                        return 0;
+        if (graphs) {
+            // set up the queries
+            for (final Query q : querySpace) {
+                surplusGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getProfit(0);
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            revenueGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    return bM.getBidder(q).getRevenue();
-                }
-            });
-            bidGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+                });
+                revenueGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
 
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).bid.bid;
-                    } catch (Exception e) {
-                        return 0;
+                    public double getSValue() {
+                        return bM.getBidder(q).getRevenue();
                     }
-                }
-            });
-            impressionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return gM.uM.getImpressions(q).getFirst();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                bidGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).bid.bid;
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            clickGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getClicks();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                impressionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return gM.uM.getImpressions(q).getFirst();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            conversionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getConversions();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                clickGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getClicks();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            cpcGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getCPC();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                conversionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getConversions();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            cpConvGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getCPConv();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                cpcGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getCPC();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            positionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+                });
+                cpConvGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getCPConv();
+                        } catch (Exception e) {
+                            return 0;
+                        }
+                    }
+                });
+                positionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getPosition();
+                        } catch (Exception e) {
+                            return 0;
+                        }
+                    }
+                });
+            }
+            usedCapacityGraph.addSequence("Used Capacity", new Sequence() {
 
                 public double getSValue() {
                     try {
-                        return bM.getBidder(q).getPosition();
+                        return bM.getUsedCapacity();
                     } catch (Exception e) {
                         return 0;
                     }
                 }
             });
+            surplusGraph.display();
+            revenueGraph.display();
+            bidGraph.display();
+            impressionGraph.display();
+            clickGraph.display();
+            conversionGraph.display();
+            cpcGraph.display();
+            cpConvGraph.display();
+            positionGraph.display();
+            usedCapacityGraph.display();
+            blankModel.run();
         }
-        usedCapacityGraph.addSequence("Used Capacity", new Sequence() {
-
-            public double getSValue() {
-                try {
-                    return bM.getUsedCapacity();
-                } catch (Exception e) {
-                    return 0;
-                }
-            }
-        });
-        surplusGraph.display();
-        revenueGraph.display();
-        bidGraph.display();
-        impressionGraph.display();
-        clickGraph.display();
-        conversionGraph.display();
-        cpcGraph.display();
-        cpConvGraph.display();
-        positionGraph.display();
-        usedCapacityGraph.display();
-        blankModel.run();
     }
 
     /**
@@ -392,169 +405,178 @@ public class TigerBloodV1 extends Agent {
         this.startInfo = startInfo;
     }
 
+    public void setGraphs(boolean graphs) {
+        showGraphs = graphs;
+    }
+
     /**
      * Prepares the agent for a new simulation.
      */
     protected void simulationSetup() {
         gM = new GameModel(this);
         bM = new BidModel(this);
-        blankModel = new BlankModel();
+        graphs = showGraphs && Util.isGraphsEnabled();
+        if (graphs) {
+            blankModel = new BlankModel();
 
-        if (surplusGraph != null) {
-            surplusGraph.dispose();
+            if (surplusGraph != null) {
+                surplusGraph.dispose();
+            }
+            surplusGraph = new OpenSequenceGraph(NAME + " Surplus", blankModel);
+            surplusGraph.setXRange(0, 60);
+            surplusGraph.setYRange(0, 1000);
+            surplusGraph.setYIncrement(100);
+            surplusGraph.setAxisTitles("Time", "$");
+
+            if (revenueGraph != null) {
+                revenueGraph.dispose();
+            }
+            revenueGraph = new OpenSequenceGraph(NAME + " Revenue", blankModel);
+            revenueGraph.setXRange(0, 60);
+            revenueGraph.setYRange(0, 1000);
+            revenueGraph.setYIncrement(100);
+            revenueGraph.setAxisTitles("Time", "$");
+
+             if (bidGraph != null) {
+                bidGraph.dispose();
+            }
+            bidGraph = new OpenSequenceGraph(NAME + " Bids", blankModel);
+            bidGraph.setXRange(0, 60);
+            bidGraph.setYRange(0, 2);
+            bidGraph.setYIncrement(0.2);
+            bidGraph.setAxisTitles("Time", "$");
+
+             if (impressionGraph != null) {
+                impressionGraph.dispose();
+            }
+            impressionGraph = new OpenSequenceGraph(NAME + " Impressions", blankModel);
+            impressionGraph.setXRange(0, 60);
+            impressionGraph.setYRange(0, 500);
+            impressionGraph.setYIncrement(50);
+            impressionGraph.setAxisTitles("Time", "Impressions");
+
+             if (clickGraph != null) {
+                clickGraph.dispose();
+            }
+            clickGraph = new OpenSequenceGraph(NAME + " Clicks", blankModel);
+            clickGraph.setXRange(0, 60);
+            clickGraph.setYRange(0, 200);
+            clickGraph.setYIncrement(20);
+            clickGraph.setAxisTitles("Time", "Clicks");
+
+             if (conversionGraph != null) {
+                conversionGraph.dispose();
+            }
+            conversionGraph = new OpenSequenceGraph(NAME + " Conversions", blankModel);
+            conversionGraph.setXRange(0, 60);
+            conversionGraph.setYRange(0, 100);
+            conversionGraph.setYIncrement(10);
+            conversionGraph.setAxisTitles("Time", "Conversions");
+
+             if (cpcGraph != null) {
+                cpcGraph.dispose();
+            }
+            cpcGraph = new OpenSequenceGraph(NAME + " Cost Per Click", blankModel);
+            cpcGraph.setXRange(0, 60);
+            cpcGraph.setYRange(0, 2);
+            cpcGraph.setYIncrement(0.2);
+            cpcGraph.setAxisTitles("Time", "$");
+
+             if (cpConvGraph != null) {
+                cpConvGraph.dispose();
+            }
+            cpConvGraph = new OpenSequenceGraph(NAME + " Cost Per Conversion", blankModel);
+            cpConvGraph.setXRange(0, 60);
+            cpConvGraph.setYRange(0, 10);
+            cpConvGraph.setYIncrement(1);
+            cpConvGraph.setAxisTitles("Time", "$");
+
+             if (positionGraph != null) {
+                positionGraph.dispose();
+            }
+            positionGraph = new OpenSequenceGraph(NAME + " Position", blankModel);
+            positionGraph.setXRange(0, 60);
+            positionGraph.setYRange(0, 8);
+            positionGraph.setYIncrement(1);
+            positionGraph.setAxisTitles("Time", "Position");
+
+             if (usedCapacityGraph != null) {
+                usedCapacityGraph.dispose();
+            }
+            usedCapacityGraph = new OpenSequenceGraph(NAME + " Used Capacity", blankModel);
+            usedCapacityGraph.setXRange(0, 60);
+            usedCapacityGraph.setYRange(0, 600);
+            usedCapacityGraph.setYIncrement(50);
+            usedCapacityGraph.setAxisTitles("Time", "Units");
         }
-        surplusGraph = new OpenSequenceGraph(NAME + " Surplus", blankModel);
-        surplusGraph.setXRange(0, 60);
-        surplusGraph.setYRange(0, 1000);
-        surplusGraph.setYIncrement(100);
-        surplusGraph.setAxisTitles("Time", "$");
+    }
 
-        if (revenueGraph != null) {
+    /**
+     * Runs any post-processes required for the agent after a simulation ends.
+     */
+    protected void simulationFinished() {
+        salesReports.clear();
+        queryReports.clear();
+        querySpace.clear();
+        if (graphs) {
+            // set graph file names
+            surplusGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_surplus");
+            revenueGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_revenue");
+            bidGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_bid");
+            impressionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_impression");
+            conversionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_conversion");
+            clickGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_click");
+            cpcGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpc");
+            cpConvGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpConv");
+            positionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_position");
+            usedCapacityGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_usedCapacity");
+            // save the graphs
+            surplusGraph.takeSnapshot();
+            revenueGraph.takeSnapshot();
+            bidGraph.takeSnapshot();
+            impressionGraph.takeSnapshot();
+            conversionGraph.takeSnapshot();
+            clickGraph.takeSnapshot();
+            cpcGraph.takeSnapshot();
+            cpConvGraph.takeSnapshot();
+            positionGraph.takeSnapshot();
+            usedCapacityGraph.takeSnapshot();
+            // close it
+            surplusGraph.closeMovie();
+            revenueGraph.closeMovie();
+            bidGraph.closeMovie();
+            impressionGraph.closeMovie();
+            conversionGraph.closeMovie();
+            clickGraph.closeMovie();
+            cpcGraph.closeMovie();
+            cpConvGraph.closeMovie();
+            positionGraph.closeMovie();
+            usedCapacityGraph.closeMovie();
+            // dispose of the graphs
+            surplusGraph.dispose();
             revenueGraph.dispose();
-        }
-        revenueGraph = new OpenSequenceGraph(NAME + " Revenue", blankModel);
-        revenueGraph.setXRange(0, 60);
-        revenueGraph.setYRange(0, 1000);
-        revenueGraph.setYIncrement(100);
-        revenueGraph.setAxisTitles("Time", "$");
-
-         if (bidGraph != null) {
             bidGraph.dispose();
-        }
-        bidGraph = new OpenSequenceGraph(NAME + " Bids", blankModel);
-        bidGraph.setXRange(0, 60);
-        bidGraph.setYRange(0, 2);
-        bidGraph.setYIncrement(0.2);
-        bidGraph.setAxisTitles("Time", "$");
-
-         if (impressionGraph != null) {
             impressionGraph.dispose();
-        }
-        impressionGraph = new OpenSequenceGraph(NAME + " Impressions", blankModel);
-        impressionGraph.setXRange(0, 60);
-        impressionGraph.setYRange(0, 500);
-        impressionGraph.setYIncrement(50);
-        impressionGraph.setAxisTitles("Time", "Impressions");
-
-         if (clickGraph != null) {
-            clickGraph.dispose();
-        }
-        clickGraph = new OpenSequenceGraph(NAME + " Clicks", blankModel);
-        clickGraph.setXRange(0, 60);
-        clickGraph.setYRange(0, 200);
-        clickGraph.setYIncrement(20);
-        clickGraph.setAxisTitles("Time", "Clicks");
-
-         if (conversionGraph != null) {
             conversionGraph.dispose();
-        }
-        conversionGraph = new OpenSequenceGraph(NAME + " Conversions", blankModel);
-        conversionGraph.setXRange(0, 60);
-        conversionGraph.setYRange(0, 100);
-        conversionGraph.setYIncrement(10);
-        conversionGraph.setAxisTitles("Time", "Conversions");
-
-         if (cpcGraph != null) {
+            clickGraph.dispose();
             cpcGraph.dispose();
-        }
-        cpcGraph = new OpenSequenceGraph(NAME + " Cost Per Click", blankModel);
-        cpcGraph.setXRange(0, 60);
-        cpcGraph.setYRange(0, 2);
-        cpcGraph.setYIncrement(0.2);
-        cpcGraph.setAxisTitles("Time", "$");
-
-         if (cpConvGraph != null) {
             cpConvGraph.dispose();
-        }
-        cpConvGraph = new OpenSequenceGraph(NAME + " Cost Per Conversion", blankModel);
-        cpConvGraph.setXRange(0, 60);
-        cpConvGraph.setYRange(0, 10);
-        cpConvGraph.setYIncrement(1);
-        cpConvGraph.setAxisTitles("Time", "$");
-
-         if (positionGraph != null) {
             positionGraph.dispose();
-        }
-        positionGraph = new OpenSequenceGraph(NAME + " Position", blankModel);
-        positionGraph.setXRange(0, 60);
-        positionGraph.setYRange(0, 8);
-        positionGraph.setYIncrement(1);
-        positionGraph.setAxisTitles("Time", "Position");
-
-         if (usedCapacityGraph != null) {
             usedCapacityGraph.dispose();
+            // set graphs to null
+            surplusGraph = null;
+            revenueGraph = null;
+            bidGraph = null;
+            impressionGraph = null;
+            conversionGraph = null;
+            clickGraph = null;
+            cpcGraph = null;
+            cpConvGraph = null;
+            positionGraph = null;
+            usedCapacityGraph = null;
+            // stop the model
+            blankModel.stop();
         }
-        usedCapacityGraph = new OpenSequenceGraph(NAME + " Used Capacity", blankModel);
-        usedCapacityGraph.setXRange(0, 60);
-        usedCapacityGraph.setYRange(0, 600);
-        usedCapacityGraph.setYIncrement(50);
-        usedCapacityGraph.setAxisTitles("Time", "Units");
-    }
-
-    /**
-     * Runs any post-processes required for the agent after a simulation ends.
-     */
-    protected void simulationFinished() {
-        salesReports.clear();
-        queryReports.clear();
-        querySpace.clear();
-        // set graph file names
-        surplusGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_surplus");
-        revenueGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_revenue");
-        bidGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_bid");
-        impressionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_impression");
-        conversionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_conversion");
-        clickGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_click");
-        cpcGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpc");
-        cpConvGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpConv");
-        positionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_position");
-        usedCapacityGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_usedCapacity");
-        // save the graphs
-        surplusGraph.takeSnapshot();
-        revenueGraph.takeSnapshot();
-        bidGraph.takeSnapshot();
-        impressionGraph.takeSnapshot();
-        conversionGraph.takeSnapshot();
-        clickGraph.takeSnapshot();
-        cpcGraph.takeSnapshot();
-        cpConvGraph.takeSnapshot();
-        positionGraph.takeSnapshot();
-        usedCapacityGraph.takeSnapshot();
-        // close it
-        surplusGraph.closeMovie();
-        revenueGraph.closeMovie();
-        bidGraph.closeMovie();
-        impressionGraph.closeMovie();
-        conversionGraph.closeMovie();
-        clickGraph.closeMovie();
-        cpcGraph.closeMovie();
-        cpConvGraph.closeMovie();
-        positionGraph.closeMovie();
-        usedCapacityGraph.closeMovie();
-        // dispose of the graphs
-        surplusGraph.dispose();
-        revenueGraph.dispose();
-        bidGraph.dispose();
-        impressionGraph.dispose();
-        conversionGraph.dispose();
-        clickGraph.dispose();
-        cpcGraph.dispose();
-        cpConvGraph.dispose();
-        positionGraph.dispose();
-        usedCapacityGraph.dispose();
-        // set graphs to null
-        surplusGraph = null;
-        revenueGraph = null;
-        bidGraph = null;
-        impressionGraph = null;
-        conversionGraph = null;
-        clickGraph = null;
-        cpcGraph = null;
-        cpConvGraph = null;
-        positionGraph = null;
-        usedCapacityGraph = null;
-        // stop the model
-        blankModel.stop();
         blankModel = null;
         // force gc
         System.gc();
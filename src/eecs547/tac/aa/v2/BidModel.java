@@ -1,6 +1,8 @@
 package eecs547.tac.aa.v2;
 
 import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.CapacityLedger;
+import eecs547.tac.aa.QueryIndex;
 import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Query;
 import edu.umich.eecs.tac.props.QueryReport;
@@ -22,6 +24,7 @@ public class BidModel {
     private static final double START_SETTING_BID_LIMITS_THRESHOLD = 0.25;
     protected TigerBloodV2 agent;
     private HashMap<Query, BidOptimizer> bidders = new HashMap<Query, BidOptimizer>();
+    private CapacityLedger capacityLedger;
     private boolean needToSetBidLimits = true;
 
     public BidModel(TigerBloodV2 agent) {
@@ -98,14 +101,18 @@ public class BidModel {
         return BidBundle.NO_SPEND_LIMIT;
     }
 
+    public CapacityLedger getCapacityLedger() {
+        if (capacityLedger == null) {
+            capacityLedger = new CapacityLedger(new QueryIndex(agent.querySpace), agent.advertiserInfo.getDistributionWindow());
+        }
+        return capacityLedger;
+    }
+
     public int getUsedCapacity() {
-        int used = 0;
-        for (int i = 0; i < agent.advertiserInfo.getDistributionWindow(); i++) {
-            for (BidOptimizer bo : bidders.values()) {
-                used += bo.getConversions(i);
-            }
+        if (capacityLedger == null) {
+            return 0;
         }
-        return used;
+        return capacityLedger.getUsedCapacity();
     }
 
     public void handleQueryReport(QueryReport queryReport) {
@@ -116,6 +123,7 @@ public class BidModel {
     }
 
     public void handleSalesReport(SalesReport salesReport) {
+        getCapacityLedger().handleSalesReport(salesReport);
         for (Query q : agent.querySpace) {
             getBidder(q).handleSalesReport(salesReport);
         }
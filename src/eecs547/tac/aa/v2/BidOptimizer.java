@@ -2,6 +2,9 @@ package eecs547.tac.aa.v2;
 
 import eecs547.tac.aa.Util;
 import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.DoubleTimeSeries;
+import eecs547.tac.aa.IntTimeSeries;
+import eecs547.tac.aa.RunningStats;
 import edu.umich.eecs.tac.props.Ad;
 import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Product;
@@ -9,7 +12,6 @@ import edu.umich.eecs.tac.props.Query;
 import edu.umich.eecs.tac.props.QueryReport;
 import edu.umich.eecs.tac.props.QueryType;
 import edu.umich.eecs.tac.props.SalesReport;
-import java.util.LinkedList;
 
 /**
  *
@@ -21,8 +23,9 @@ public class BidOptimizer {
     public BidModel bM;
     public Query query;
     public Bid bid;
-    private LinkedList<Double> bids = new LinkedList<Double>(), costs = new LinkedList<Double>(), revenues = new LinkedList<Double>(), cpc = new LinkedList<Double>(), position = new LinkedList<Double>();
-    private LinkedList<Integer> clicks = new LinkedList<Integer>(), conversions = new LinkedList<Integer>();
+    private DoubleTimeSeries bids = new DoubleTimeSeries(), costs = new DoubleTimeSeries(), revenues = new DoubleTimeSeries(), cpc = new DoubleTimeSeries(), position = new DoubleTimeSeries();
+    private IntTimeSeries clicks = new IntTimeSeries(), conversions = new IntTimeSeries();
+    private RunningStats costStats = new RunningStats(), conversionStats = new RunningStats();
     public Double bidDelta = 0d;
     private boolean firstBid = true;
 
@@ -33,7 +36,7 @@ public class BidOptimizer {
 
     public Bid getBid() {
         updateBid();
-        bids.add(bid.bid);
+        bids.addFirst(bid.bid);
         return bid;
     }
 
@@ -78,35 +81,15 @@ public class BidOptimizer {
     }
 
     public double getAvgCPConv() {
-        if (conversions.isEmpty()) {
-            return 0;
-        }
-        double t = 0;
-        for (int i = 0; i < conversions.size(); i++) {
-            t += conversions.get(i);
-        }
-        return t / conversions.size();
+        return conversionStats.getMean();
     }
 
     public double getAvgCost() {
-        double t = 0d, count = 0d;
-        for (Double c : costs) {
-            t += c;
-            if (c > 0) {
-                count++;
-            }
-        }
-        return t / count;
+        return costStats.getNonZeroMean();
     }
 
     public double getMaxCost() {
-        double m = 0d;
-        for (Double c : costs) {
-            if (c > m) {
-                m = c;
-            }
-        }
-        return m;
+        return Math.max(0d, costStats.getMax());
     }
 
     public double getCost(int i) {
@@ -136,14 +119,14 @@ public class BidOptimizer {
     }
 
     public double getCPConv() {
-        if (conversions.isEmpty() || conversions.getFirst().equals(Double.NaN) || conversions.getFirst() == 0) {
+        if (conversions.isEmpty() || conversions.getFirst() == 0) {
             return 0d;
         }
         return costs.getFirst() / conversions.getFirst();
     }
 
     public double getPosition() {
-        if (position.isEmpty() || position.getFirst().equals(Double.NaN) || position.getFirst() == 0) {
+        if (position.isEmpty() || Double.isNaN(position.getFirst()) || position.getFirst() == 0) {
             return 0;
         }
         return 9d - position.getFirst();
@@ -180,6 +163,7 @@ public class BidOptimizer {
             return;
         }
         costs.addFirst(totalCost);
+        costStats.add(totalCost);
     }
 
     public void setClicks(int clicks) {
@@ -188,6 +172,7 @@ public class BidOptimizer {
 
     public void setConversions(int conversions) {
         this.conversions.addFirst(conversions);
+        conversionStats.add(conversions);
     }
 
     public void setCPC(double cpc) {
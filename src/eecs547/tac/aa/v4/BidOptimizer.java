@@ -1,15 +1,16 @@
 package eecs547.tac.aa.v4;
 
 import eecs547.tac.aa.Util;
-import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.BidParameters;
+import eecs547.tac.aa.BidVector;
+import eecs547.tac.aa.DayFrame;
+import eecs547.tac.aa.DoubleTimeSeries;
+import eecs547.tac.aa.IntTimeSeries;
+import eecs547.tac.aa.RunningStats;
 import edu.umich.eecs.tac.props.Ad;
-import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Product;
 import edu.umich.eecs.tac.props.Query;
-import edu.umich.eecs.tac.props.QueryReport;
 import edu.umich.eecs.tac.props.QueryType;
-import edu.umich.eecs.tac.props.SalesReport;
-import java.util.LinkedList;
 
 /**
  *
@@ -17,110 +18,145 @@ import java.util.LinkedList;
  */
 public class BidOptimizer {
 
+    public static final int RECENT_DAYS = 5;
     public static final double MOVEMENT = 0.035, PERCENT_INITIAL_BID_F0 = 0.04, PERCENT_INITIAL_BID_F1 = 0.075, PERCENT_INITIAL_BID_F2 = 0.1, PERCENT_INITIAL_BID_SPECIAL = 0.11;
     public BidModel bM;
     public Query query;
-    public Bid bid;
-    private LinkedList<Double> bids = new LinkedList<Double>(), costs = new LinkedList<Double>(), revenues = new LinkedList<Double>(), cpc = new LinkedList<Double>(), position = new LinkedList<Double>();
-    private LinkedList<Integer> clicks = new LinkedList<Integer>(), conversions = new LinkedList<Integer>();
-    public Double bidDelta = 0d, min = 0d;
+    public int queryOrdinal;
+    private BidVector bidVector;
+    private DoubleTimeSeries bids = new DoubleTimeSeries(), costs = new DoubleTimeSeries(), revenues = new DoubleTimeSeries(), cpc = new DoubleTimeSeries(), position = new DoubleTimeSeries();
+    private IntTimeSeries clicks = new IntTimeSeries(), conversions = new IntTimeSeries();
+    private RunningStats costStats = new RunningStats(RECENT_DAYS), conversionStats = new RunningStats(RECENT_DAYS), profitStats = new RunningStats(RECENT_DAYS);
+    public double bidDelta = 0d, min = 0d;
     private boolean firstBid = true;
 
-    public BidOptimizer(BidModel bM, Query query) {
+    public BidOptimizer(BidModel bM, int queryOrdinal) {
         this.bM = bM;
-        this.query = query;
+        this.queryOrdinal = queryOrdinal;
+        this.query = bM.agent.queryIndex.get(queryOrdinal);
+        this.bidVector = bM.getBidVector();
     }
 
-    public Bid getBid() {
-        updateBid();
-        bids.add(bid.bid);
-        return bid;
+    public boolean hasBid() {
+        return !firstBid;
+    }
+
+    public double getBid() {
+        return bidVector.getBid(queryOrdinal);
+    }
+
+    /**
+     * @param daysAgo 0 for the bid sent most recently
+     * @return a bid that was sent, NaN if there is none that old
+     */
+    public double getSentBid(int daysAgo) {
+        if (daysAgo >= bids.size()) {
+            return Double.NaN;
+        }
+        return bids.get(daysAgo);
+    }
+
+    /**
+     * Records the bid that went out today, which on a day the bids ran late
+     * is the fallback's, not the one computed.
+     */
+    public void setSentBid(double bid) {
+        bids.addFirst(bid);
+    }
+
+    public double getSpendLimit() {
+        return bidVector.getSpendLimit(queryOrdinal);
+    }
+
+    public void setSpendLimit(double spendLimit) {
+        bidVector.setSpendLimit(queryOrdinal, spendLimit);
     }
 
     public void updateBid() {
         // set random on first update
         if (firstBid) {
+            QueryType type = bM.agent.queryIndex.getType(queryOrdinal);
             Product target = null;
-            if (query.getType().equals(QueryType.FOCUS_LEVEL_TWO)) {
+            if (type == QueryType.FOCUS_LEVEL_TWO) {
                 target = new Product(query.getManufacturer(), query.getComponent());
             }
-            bid = new Bid(BidBundle.NO_SHOW_BID, new Ad(target), BidBundle.NO_SPEND_LIMIT);
+            bidVector.setAd(queryOrdinal, new Ad(target));
 
             // set a random bid with mean at half of the profit
-            double avgProfit = bM.agent.getAverageSalesProfit(query.getComponent(), query.getManufacturer());
-            if (query.getType().equals(QueryType.FOCUS_LEVEL_ZERO)) {
+            BidParameters parameters = bM.agent.getParameters();
+            double avgProfit = bM.agent.queryIndex.getAverageProfit(queryOrdinal);
+            if (type == QueryType.FOCUS_LEVEL_ZERO) {
                 if (bM.agent.advertiserInfo.getDistributionCapacity() > 300) {
-                    bid.bid = avgProfit * PERCENT_INITIAL_BID_F0;
+                    bidVector.setBid(queryOrdinal, avgProfit * parameters.getInitialBidF0());
                 }
-            } else if (query.getType().equals(QueryType.FOCUS_LEVEL_ONE)) {
-                bid.bid = avgProfit * PERCENT_INITIAL_BID_F1;
-            } else if (query.getType().equals(QueryType.FOCUS_LEVEL_TWO)) {
-                if (bM.agent.getSpecializationQuery().equals(query)) {
-                    bid.bid = avgProfit * PERCENT_INITIAL_BID_SPECIAL;
+            } else if (type == QueryType.FOCUS_LEVEL_ONE) {
+                bidVector.setBid(queryOrdinal, avgProfit * parameters.getInitialBidF1());
+            } else if (type == QueryType.FOCUS_LEVEL_TWO) {
+                if (bM.agent.queryIndex.isSpecialization(queryOrdinal)) {
+                    bidVector.setBid(queryOrdinal, avgProfit * parameters.getInitialBidSpecial());
                 } else {
-                    bid.bid = avgProfit * PERCENT_INITIAL_BID_F2;
+                    bidVector.setBid(queryOrdinal, avgProfit * parameters.getInitialBidF2());
                 }
             }
 
             // start bid delta
-            bidDelta = MOVEMENT * bid.bid;
+            bidDelta = parameters.getMovement() * getBid();
 
             // done
             firstBid = false;
         }
 
         // only move if it's being used and is not F0
-        if (bid.spendLimit != 1d && !query.getType().equals(QueryType.FOCUS_LEVEL_ZERO)) {
+        if (getSpendLimit() != 1d && bM.agent.queryIndex.getType(queryOrdinal) != QueryType.FOCUS_LEVEL_ZERO) {
+            double bid = getBid();
+
             // update the min
-            if (!position.isEmpty() && (position.getFirst().equals(Double.NaN) || position.getFirst() == 0d)) {
-                min = bid.bid;
+            if (!position.isEmpty() && (Double.isNaN(position.getFirst()) || position.getFirst() == 0d)) {
+                min = bid;
             }
 
             // update direction
-            if ((!revenues.isEmpty() && getProfit(0) < 0 && bidDelta > 0)
-                    || (bid.bid <= min && bidDelta < 0)
-                    || (revenues.size() >= 2 && getProfit(1) > getProfit(0))) {
+            if ((!revenues.isEmpty() && profit(0) < 0 && bidDelta > 0)
+                    || (bid <= min && bidDelta < 0)
+                    || (revenues.size() >= 2 && profit(1) > profit(0))) {
                 bidDelta *= -1;
             }
 
             // submit the bid
-            bid.bid = Util.round3(bid.bid + bidDelta);
-            if (bid.bid < 0) {
-                bid.bid = 0;
+            bid = Util.round3(bid + bidDelta);
+            if (bid < 0) {
+                bid = 0;
             }
+            bidVector.setBid(queryOrdinal, bid);
         }
     }
 
     public double getAvgCPConv() {
-        if (conversions.isEmpty()) {
-            return 0;
-        }
-        double t = 0;
-        for (int i = 0; i < conversions.size(); i++) {
-            t += conversions.get(i);
-        }
-        return t / conversions.size();
+        return conversionStats.getMean();
+    }
+
+    public double getRecentAvgCPConv() {
+        return conversionStats.getWindowMean();
     }
 
     public double getAvgCost() {
-        double t = 0d, count = 0d;
-        for (Double c : costs) {
-            t += c;
-            if (c > 0) {
-                count++;
-            }
-        }
-        return t / count;
+        return costStats.getNonZeroMean();
+    }
+
+    public double getRecentAvgCost() {
+        return costStats.getWindowMean();
     }
 
     public double getMaxCost() {
-        double m = 0d;
-        for (Double c : costs) {
-            if (c > m) {
-                m = c;
-            }
-        }
-        return m;
+        return Math.max(0d, costStats.getMax());
+    }
+
+    public double getAvgProfit() {
+        return profitStats.getMean();
+    }
+
+    public double getRecentAvgProfit() {
+        return profitStats.getWindowMean();
     }
 
     public double getCost(int i) {
@@ -150,14 +186,14 @@ public class BidOptimizer {
     }
 
     public double getCPConv() {
-        if (conversions.isEmpty() || conversions.getFirst().equals(Double.NaN) || conversions.getFirst() == 0) {
+        if (conversions.isEmpty() || conversions.getFirst() == 0) {
             return 0d;
         }
         return costs.getFirst() / conversions.getFirst();
     }
 
     public double getPosition() {
-        if (position.isEmpty() || position.getFirst().equals(Double.NaN) || position.getFirst() == 0) {
+        if (position.isEmpty() || Double.isNaN(position.getFirst()) || position.getFirst() == 0) {
             return 0;
         }
         return 9d - position.getFirst();
@@ -167,6 +203,10 @@ public class BidOptimizer {
         if (i > revenues.size() - 1) {
             return null;
         }
+        return profit(i);
+    }
+
+    private double profit(int i) {
         return revenues.get(i) - costs.get(i);
     }
 
@@ -177,16 +217,16 @@ public class BidOptimizer {
         return revenues.getFirst();
     }
 
-    public void handleQueryReport(QueryReport queryReport) {
-        setTotalCost(queryReport.getCost(query));
-        setClicks(queryReport.getClicks(query));
-        setCPC(queryReport.getCPC(query));
-        setPosition(queryReport.getPosition(query));
+    public void handleQueryReport(DayFrame frame) {
+        setTotalCost(frame.getCost(queryOrdinal));
+        setClicks(frame.getClicks(queryOrdinal));
+        setCPC(frame.getCPC(queryOrdinal));
+        setPosition(frame.getPosition(queryOrdinal));
     }
 
-    public void handleSalesReport(SalesReport salesReport) {
-        setRevenue(salesReport.getRevenue(query));
-        setConversions(salesReport.getConversions(query));
+    public void handleSalesReport(DayFrame frame) {
+        setRevenue(frame.getRevenue(queryOrdinal));
+        setConversions(frame.getConversions(queryOrdinal));
     }
 
     public void setTotalCost(double totalCost) {
@@ -194,6 +234,7 @@ public class BidOptimizer {
             return;
         }
         costs.addFirst(totalCost);
+        costStats.add(totalCost);
     }
 
     public void setClicks(int clicks) {
@@ -202,6 +243,7 @@ public class BidOptimizer {
 
     public void setConversions(int conversions) {
         this.conversions.addFirst(conversions);
+        conversionStats.add(conversions);
     }
 
     public void setCPC(double cpc) {
@@ -217,5 +259,6 @@ public class BidOptimizer {
             return;
         }
         revenues.addFirst(revenue);
+        profitStats.add(revenue - costs.getFirst());
     }
 }
@@ -1,17 +1,20 @@
 package eecs547.tac.aa.v5;
 
-import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.AuctionKernel;
+import eecs547.tac.aa.BidInference;
+import eecs547.tac.aa.BidLandscape;
+import eecs547.tac.aa.BidVector;
+import eecs547.tac.aa.CapacityAllocator;
+import eecs547.tac.aa.CapacityLedger;
+import eecs547.tac.aa.CapacityPlanner;
+import eecs547.tac.aa.ConversionTables;
+import eecs547.tac.aa.DayFrame;
+import eecs547.tac.aa.QueryExecutor;
+import edu.umich.eecs.tac.props.Ad;
 import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Query;
-import edu.umich.eecs.tac.props.QueryReport;
 import edu.umich.eecs.tac.props.QueryType;
-import edu.umich.eecs.tac.props.SalesReport;
 import eecs547.tac.aa.Util;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  *
@@ -19,104 +22,336 @@ import java.util.List;
  */
 public class BidModel {
 
-    private static final double START_SETTING_BID_LIMITS_THRESHOLD = 0.3;
+    static final double START_SETTING_BID_LIMITS_THRESHOLD = 0.3;
+    /**
+     * Weight of the capacity planner against the one-day rule. A 32-game
+     * grid sweep of "capacityPlanning" (seed 18) ranked 1 first for v5,
+     * 47624 against 41027 with the planner off; v4 stayed within noise.
+     */
+    static final double CAPACITY_PLANNING = 1d;
+    /**
+     * Fraction of a query's recent cost a throttled query may spend.
+     */
+    private static final double THROTTLED_SPEND = 0.5;
+    /**
+     * Time the capacity allocation may take before settling for the best answer so far.
+     */
+    private static final long ALLOCATION_TIME_LIMIT_MILLIS = 100;
     protected TigerBloodV4 agent;
-    private HashMap<Query, BidOptimizer> bidders = new HashMap<Query, BidOptimizer>();
+    private BidOptimizer[] bidders;
+    private BidVector bidVector;
+    private CapacityLedger capacityLedger;
+    private CapacityAllocator allocator;
+    private double[] optionLimits;
+    private CapacityPlanner planner;
+    private BidLandscape landscape;
+    private double[] opponentBids, opponentEffects;
+    private QueryExecutor executor;
+    private final QueryExecutor.Task submitter = new QueryExecutor.Task() {
+
+        public void run(int queryOrdinal) {
+            getBidder(queryOrdinal).updateBid();
+        }
+    };
     private boolean firstPass = true, needToSetBidLimits = true;
+    private int tick = 0, reportedDays = 0;
 
     public BidModel(TigerBloodV4 agent) {
         this.agent = agent;
     }
 
-    public Bid getBid(Query query) {
+    /**
+     * Updates every query's bid, ad and spend limit for the day. The
+     * optimizers after the first run on the {@link QueryExecutor}; each
+     * writes only its own slot of the bid vector, so the result is the same
+     * as updating them one after another.
+     * @return the bid vector
+     */
+    public BidVector getBids() {
+        int queries = agent.queryIndex.size();
+        getBidVector();
+        for (int i = 0; i < queries; i++) {
+            getBidder(i);
+        }
+        loadLandscape();
+        if (queries > 0) {
+            // the first update also sets the day's spend limits, so it runs alone
+            updateBid(0);
+            getExecutor().run(1, queries, submitter);
+        }
+        bidVector.setCampaignSpendLimit(getDailySpendLimit());
+        return bidVector;
+    }
+
+    /**
+     * @return the auction model's answers for candidate bids, or null until
+     * the slot, publisher, advertiser and catalog information are all in
+     */
+    public BidLandscape getLandscape() {
+        if (landscape == null && agent.slotInfo != null && agent.publisherInfo != null && agent.getConversionTables() != null) {
+            int queries = agent.queryIndex.size();
+            landscape = new BidLandscape(queries);
+            for (int i = 0; i < queries; i++) {
+                landscape.setKernel(i, agent.newAuctionKernel(i));
+            }
+        }
+        return landscape;
+    }
+
+    /**
+     * Starts the landscape's day with the latest opponent estimates,
+     * search forecasts and conversion rates.
+     */
+    private void loadLandscape() {
+        BidLandscape l = getLandscape();
+        if (l == null) {
+            return;
+        }
+        l.nextDay();
+        BidInference inference = agent.gM.getBidInference();
+        ConversionTables tables = agent.getConversionTables();
+        int opponents = agent.gM.getOpponentStore().size();
+        if (opponentBids == null || opponentBids.length < opponents) {
+            opponentBids = new double[Math.max(opponents, 1)];
+            opponentEffects = new double[opponentBids.length];
+        }
+        int used = getUsedCapacity();
+        for (int i = 0; i < agent.queryIndex.size(); i++) {
+            int n = inference.fillOpponents(i, opponentBids, opponentEffects);
+            l.setOpponents(i, n, opponentBids, opponentEffects);
+            // before the first update the ad is not set yet; it will be targeted on the F2 queries
+            Ad ad = bidVector.getAd(i);
+            boolean targeted = ad != null ? ad.getProduct() != null : agent.queryIndex.getType(i) == QueryType.FOCUS_LEVEL_TWO;
+            l.setInputs(i, AuctionKernel.getDefaultAdvertiserEffect(agent.queryIndex.getType(i)), targeted, agent.gM.uM.predictSearches(i), tables.getConversionProbability(i, used), tables.getRevenue(i));
+        }
+    }
+
+    public synchronized QueryExecutor getExecutor() {
+        if (executor == null) {
+            executor = new QueryExecutor();
+        }
+        return executor;
+    }
+
+    /**
+     * @param executor runs the per-query optimizers, e.g. with more parallelism than the default
+     */
+    public synchronized void setExecutor(QueryExecutor executor) {
+        if (this.executor != null && this.executor != executor) {
+            this.executor.shutdown();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Stops any worker threads.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public BidVector getBidVector() {
+        if (bidVector == null) {
+            bidVector = new BidVector(agent.queryIndex);
+        }
+        return bidVector;
+    }
+
+    public void updateBid(int queryOrdinal) {
         if (needToSetBidLimits) {
             needToSetBidLimits = false;
-            if (getBidder(query).bid != null) {
+            if (getBidder(queryOrdinal).hasBid()) {
                 // optimize capacity
                 double percUsedCapacity = (double) getUsedCapacity() / (double) agent.advertiserInfo.getDistributionCapacity();
-                if (percUsedCapacity >= START_SETTING_BID_LIMITS_THRESHOLD) {
-                    // get total impressions
-                    final int totalImpressions = agent.gM.uM.predictTotalImpressions();
-                    // rank the bidders
-                    List<BidOptimizer> rankBidders = new LinkedList<BidOptimizer>();
-                    rankBidders.addAll(bidders.values());
-                    // do not remove the F2 queries
-                    for (Query q : agent.querySpace) {
-                        if (q.getType().equals(QueryType.FOCUS_LEVEL_TWO)) {
-                            rankBidders.remove(bidders.get(q));
-                        }
-                    }
-                    // rank the bidders by importance
-                    Collections.sort(rankBidders, new Comparator<BidOptimizer>() {
-
-                        public int compare(BidOptimizer bo1, BidOptimizer bo2) {
-                            return -1 * Double.valueOf(bo1.getAvgCPConv() * ((double) agent.gM.uM.predictImpressions(bo1.query) / (double) totalImpressions)).compareTo(Double.valueOf(bo2.getAvgCPConv() * ((double) agent.gM.uM.predictImpressions(bo2.query) / (double) totalImpressions)));
-                        }
-                    });
-                    // how many bidders to cut off?
-                    double biddersToCutOff = (double) rankBidders.size() * (percUsedCapacity - START_SETTING_BID_LIMITS_THRESHOLD) * (1d / (1 - START_SETTING_BID_LIMITS_THRESHOLD));
-                    if (biddersToCutOff > rankBidders.size()) {
-                        biddersToCutOff = (double) rankBidders.size();
-                    }
-                    for (int i = 0; i < rankBidders.size(); i++) {
-                        if (i < biddersToCutOff) {
-                            rankBidders.get(i).bid.spendLimit = 1;
-                        } else {
-                            rankBidders.get(i).bid.spendLimit = BidBundle.NO_SPEND_LIMIT;
-                        }
-                    }
-                    Util.debug("Used Capacity: " + getUsedCapacity() + ", % Used Capacity: " + Util.round3(percUsedCapacity) + ", Bidders to cut off: " + biddersToCutOff + "/" + rankBidders.size());
-                    // still a problem?
-                    if (biddersToCutOff >= (double) rankBidders.size()) {
-                        // reduce the F2 queries that are not the specialization
-                        for (Query q : agent.querySpace) {
-                            if (!q.equals(agent.getSpecializationQuery()) && q.getType().equals(QueryType.FOCUS_LEVEL_TWO)) {
-                                getBidder(q).bid.spendLimit = getBidder(q).getAvgCost() / (1.2 * percUsedCapacity);
-                            }
-                        }
-                    }
+                if (percUsedCapacity >= agent.getParameters().getBidLimitsThreshold()) {
+                    allocateCapacity(percUsedCapacity);
                 } else {
-                    for (BidOptimizer bo : bidders.values()) {
-                        bo.bid.spendLimit = BidBundle.NO_SPEND_LIMIT;
+                    for (BidOptimizer bo : bidders) {
+                        if (bo != null && bo.hasBid()) {
+                            bo.setSpendLimit(BidBundle.NO_SPEND_LIMIT);
+                        }
                     }
                 }
             }
         }
-        // return bid
-        return getBidder(query).getBid();
+        // update the bid
+        getBidder(queryOrdinal).updateBid();
+    }
+
+    /**
+     * Picks, for every query, whether to bid freely, to bid with its spend
+     * limit cut to a fraction of its recent cost, or not to be shown, so the
+     * expected profit is as large as possible while the expected conversions
+     * fit in the capacity left. The F2 queries are never taken off. Only if
+     * the rest cannot make room may the F2 queries other than the
+     * specialization be throttled too.
+     */
+    private void allocateCapacity(double percUsedCapacity) {
+        int queries = agent.queryIndex.size();
+        if (allocator == null) {
+            allocator = new CapacityAllocator(queries, 3);
+            optionLimits = new double[queries * 3];
+        }
+        double capacity = getRemainingCapacity();
+        long deadline = System.nanoTime() + ALLOCATION_TIME_LIMIT_MILLIS * 1000000L;
+        addOptions(false);
+        boolean optimal = allocator.solve(capacity, deadline);
+        boolean lastResort = !allocator.isFeasible();
+        if (lastResort) {
+            addOptions(true);
+            optimal = allocator.solve(capacity, deadline);
+        }
+        int throttled = 0, off = 0;
+        for (int i = 0; i < queries; i++) {
+            double limit = optionLimits[i * 3 + allocator.getChoice(i)];
+            getBidder(i).setSpendLimit(limit);
+            if (limit == 1d) {
+                off++;
+            } else if (limit != BidBundle.NO_SPEND_LIMIT) {
+                throttled++;
+            }
+        }
+        Util.debug("Used Capacity: " + getUsedCapacity() + ", % Used Capacity: " + Util.round3(percUsedCapacity) + ", Capacity left: " + Util.round3(capacity) + ", Expected conversions: " + Util.round3(allocator.getWeight()) + ", Throttled: " + throttled + ", Off: " + off + "/" + queries + (lastResort ? " (F2 throttled)" : "") + (optimal ? "" : " (not optimal)"));
+    }
+
+    /**
+     * Offers each query's spend limits to the allocator, valued from its
+     * recent profit and conversions, or, for a query that has not been paid
+     * for lately, from what the auction model expects at its current bid if
+     * it has opponents to go by.
+     * @param throttleF2 whether the F2 queries other than the specialization may be throttled
+     */
+    private void addOptions(boolean throttleF2) {
+        allocator.clear();
+        for (int i = 0; i < agent.queryIndex.size(); i++) {
+            BidOptimizer bo = getBidder(i);
+            double profit = bo.getRecentAvgProfit(), conversions = bo.getRecentAvgCPConv();
+            if (!(bo.getRecentAvgCost() > 0) && landscape != null && landscape.getOpponentCount(i) > 0 && bo.hasBid()) {
+                landscape.evaluate(i, bo.getBid());
+                profit = landscape.getProfit(i);
+                conversions = landscape.getConversions(i);
+            }
+            boolean f2 = agent.queryIndex.getType(i) == QueryType.FOCUS_LEVEL_TWO;
+            addOption(i, BidBundle.NO_SPEND_LIMIT, profit, conversions);
+            if (bo.getRecentAvgCost() > 0 && (!f2 || (throttleF2 && !agent.queryIndex.isSpecialization(i)))) {
+                addOption(i, THROTTLED_SPEND * bo.getRecentAvgCost(), THROTTLED_SPEND * profit, THROTTLED_SPEND * conversions);
+            }
+            if (!f2) {
+                addOption(i, 1d, 0d, 0d);
+            }
+        }
+    }
+
+    private void addOption(int queryOrdinal, double spendLimit, double profit, double conversions) {
+        optionLimits[queryOrdinal * 3 + allocator.addOption(queryOrdinal, profit, conversions)] = spendLimit;
+    }
+
+    /**
+     * Going over capacity only makes conversions less likely, so even when
+     * the window is full a query may keep the sustainable daily share of the
+     * capacity rather than every query being switched off. With
+     * {@link eecs547.tac.aa.BidParameters#getCapacityPlanning() capacity planning} on and
+     * conversions to go by, the answer moves by that weight towards the
+     * next day's share of a plan of every day left in the game against the
+     * distribution window and capacity discounter, from what the recent
+     * days' conversions cost and earned.
+     * @return conversions to plan for on the next day
+     */
+    public double getRemainingCapacity() {
+        CapacityLedger ledger = getCapacityLedger();
+        double capacity = agent.advertiserInfo.getDistributionCapacity();
+        double rule = Math.max(capacity - ledger.getProjectedUsedCapacity(1), capacity / ledger.getDistributionWindow());
+        double planning = agent.getParameters().getCapacityPlanning();
+        if (!(planning > 0)) {
+            return rule;
+        }
+        double revenue = 0d, cost = 0d, conversions = 0d;
+        for (int i = 0; i < agent.queryIndex.size(); i++) {
+            BidOptimizer bo = getBidder(i);
+            revenue += bo.getRecentAvgProfit() + bo.getRecentAvgCost();
+            cost += bo.getRecentAvgCost();
+            conversions += bo.getRecentAvgCPConv();
+        }
+        if (!(conversions > 0)) {
+            return rule;
+        }
+        // the reports in cover up to yesterday, and the bids are for tomorrow
+        int days = agent.getNumberOfDays() - reportedDays - 1;
+        double plan = getCapacityPlanner().plan(ledger, conversions, Math.max(1, days), revenue / conversions, cost / conversions);
+        return planning * plan + (1d - planning) * rule;
+    }
+
+    public CapacityPlanner getCapacityPlanner() {
+        if (planner == null) {
+            planner = new CapacityPlanner(agent.advertiserInfo.getDistributionCapacity(), agent.advertiserInfo.getDistributionWindow(), agent.advertiserInfo.getDistributionCapacityDiscounter());
+        }
+        return planner;
     }
 
     public BidOptimizer getBidder(Query query) {
-        if (!bidders.containsKey(query)) {
-            bidders.put(query, new BidOptimizer(this, query));
+        return getBidder(agent.queryIndex.indexOf(query));
+    }
+
+    public BidOptimizer getBidder(int queryOrdinal) {
+        if (bidders == null) {
+            bidders = new BidOptimizer[agent.queryIndex.size()];
         }
-        return bidders.get(query);
+        if (bidders[queryOrdinal] == null) {
+            bidders[queryOrdinal] = new BidOptimizer(this, queryOrdinal);
+        }
+        return bidders[queryOrdinal];
     }
 
     public double getDailySpendLimit() {
         return BidBundle.NO_SPEND_LIMIT;
     }
 
+    public CapacityLedger getCapacityLedger() {
+        if (capacityLedger == null) {
+            capacityLedger = new CapacityLedger(agent.queryIndex, agent.advertiserInfo.getDistributionWindow());
+        }
+        return capacityLedger;
+    }
+
     public int getUsedCapacity() {
-        int used = 0;
-        for (int i = 0; i < agent.advertiserInfo.getDistributionWindow(); i++) {
-            for (BidOptimizer bo : bidders.values()) {
-                used += bo.getConversions(i);
-            }
+        if (capacityLedger == null) {
+            return 0;
         }
-        return used;
+        return capacityLedger.getUsedCapacity();
     }
 
-    public void handleQueryReport(QueryReport queryReport) {
-        for (Query q : agent.querySpace) {
-            getBidder(q).handleQueryReport(queryReport);
+    public void handleQueryReport(DayFrame frame) {
+        for (int i = 0; i < agent.queryIndex.size(); i++) {
+            getBidder(i).handleQueryReport(frame);
         }
         needToSetBidLimits = true;
     }
 
-    public void handleSalesReport(SalesReport salesReport) {
-        for (Query q : agent.querySpace) {
-            getBidder(q).handleSalesReport(salesReport);
+    /**
+     * Makes the next update the first of an early day again, setting the
+     * spend limits, e.g. for a benchmark that repeats one day's first update.
+     */
+    public void restartDay() {
+        tick = 0;
+        needToSetBidLimits = true;
+    }
+
+    public void handleSalesReport(DayFrame frame) {
+        getCapacityLedger().handleSalesReport(frame);
+        reportedDays++;
+        for (int i = 0; i < agent.queryIndex.size(); i++) {
+            getBidder(i).handleSalesReport(frame);
+        }
+    }
+
+    /**
+     * Records the bids that went out today, see {@link BidOptimizer#setSentBid(double)}.
+     */
+    public void setSentBids(BidVector sent) {
+        for (int i = 0; i < agent.queryIndex.size(); i++) {
+            getBidder(i).setSentBid(sent.getBid(i));
         }
     }
 }
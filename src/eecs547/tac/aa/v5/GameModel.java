@@ -1,8 +1,8 @@
 package eecs547.tac.aa.v5;
 
-import edu.umich.eecs.tac.props.Query;
-import edu.umich.eecs.tac.props.QueryReport;
-import java.util.LinkedHashMap;
+import eecs547.tac.aa.BidInference;
+import eecs547.tac.aa.DayFrame;
+import eecs547.tac.aa.OpponentStore;
 
 /**
  *
@@ -11,26 +11,50 @@ import java.util.LinkedHashMap;
 public class GameModel {
 
     protected TigerBloodV4 agent;
-    private LinkedHashMap<String, OpponentModel> opponents = new LinkedHashMap<String, OpponentModel>();
+    private OpponentStore opponentStore;
+    private BidInference bidInference;
+    private double[] reportBids;
     public UserModel uM = new UserModel(this);
 
     public GameModel(TigerBloodV4 agent) {
         this.agent = agent;
     }
 
-    public OpponentModel getOpponentModel(String opponent) {
-        if (!opponents.containsKey(opponent)) {
-            opponents.put(opponent, new OpponentModel(opponent, this));
+    public OpponentStore getOpponentStore() {
+        if (opponentStore == null) {
+            opponentStore = new OpponentStore(agent.queryIndex);
         }
-        return opponents.get(opponent);
+        return opponentStore;
     }
 
-    public void handleQueryReport(QueryReport queryReport) {
-        for (Query q : agent.querySpace) {
-            for (String advertiser : queryReport.advertisers(q)) {
-                getOpponentModel(advertiser).handleQueryReport(q, queryReport);
+    public BidInference getBidInference() {
+        if (bidInference == null) {
+            bidInference = new BidInference(agent.queryIndex, getOpponentStore());
+            bidInference.setExecutor(agent.bM.getExecutor());
+            if (agent.advertiserInfo != null) {
+                bidInference.setSelf(agent.advertiserInfo.getAdvertiserId());
             }
+            if (agent.publisherInfo != null) {
+                bidInference.setSquashing(agent.publisherInfo.getSquashingParameter());
+            }
+        }
+        return bidInference;
+    }
+
+    public void handleQueryReport(DayFrame frame) {
+        getOpponentStore().handleQueryReport(frame);
+        // the report covers yesterday, which ran on the bids sent the day before
+        if (reportBids == null) {
+            reportBids = new double[agent.queryIndex.size()];
         }
-        uM.handleQueryReport(queryReport);
+        for (int i = 0; i < reportBids.length; i++) {
+            reportBids[i] = agent.bM.getBidder(i).getSentBid(1);
+        }
+        getBidInference().handleQueryReport(frame, reportBids);
+        uM.handleQueryReport(frame);
+    }
+
+    public void handleSalesReport(DayFrame frame) {
+        uM.handleSalesReport(frame);
     }
 }
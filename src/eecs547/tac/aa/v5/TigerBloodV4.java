@@ -1,13 +1,22 @@
 package eecs547.tac.aa.v5;
 
+import eecs547.tac.aa.AuctionKernel;
+import eecs547.tac.aa.BidParameters;
+import eecs547.tac.aa.BidPipeline;
+import eecs547.tac.aa.BidVector;
+import eecs547.tac.aa.BudgetedAgent;
+import eecs547.tac.aa.ConversionTables;
+import eecs547.tac.aa.GraphingAgent;
 import eecs547.tac.aa.Util;
-import eecs547.tac.aa.Bid;
+import eecs547.tac.aa.DayFrame;
+import eecs547.tac.aa.QueryIndex;
 import edu.umich.eecs.tac.props.AdvertiserInfo;
 import edu.umich.eecs.tac.props.BidBundle;
 import edu.umich.eecs.tac.props.Product;
 import edu.umich.eecs.tac.props.PublisherInfo;
 import edu.umich.eecs.tac.props.Query;
 import edu.umich.eecs.tac.props.QueryReport;
+import edu.umich.eecs.tac.props.QueryType;
 import edu.umich.eecs.tac.props.RetailCatalog;
 import edu.umich.eecs.tac.props.SalesReport;
 import edu.umich.eecs.tac.props.SlotInfo;
@@ -16,6 +25,8 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import se.sics.isl.transport.Transportable;
 import se.sics.tasim.aw.Agent;
 import se.sics.tasim.aw.Message;
@@ -28,9 +39,17 @@ import uchicago.src.sim.analysis.Sequence;
  *
  * @author Augie
  */
-public class TigerBloodV4 extends Agent {
+public class TigerBloodV4 extends Agent implements BudgetedAgent, GraphingAgent {
 
     public static final String NAME = "V4";
+    /**
+     * Days in a standard game, assumed until the {@link StartInfo} arrives.
+     */
+    public static final int DEFAULT_NUMBER_OF_DAYS = 60;
+    /**
+     * This version's hand set bidding constants.
+     */
+    public static final BidParameters DEFAULT_PARAMETERS = new BidParameters(BidOptimizer.MOVEMENT, BidOptimizer.PERCENT_INITIAL_BID_F0, BidOptimizer.PERCENT_INITIAL_BID_F1, BidOptimizer.PERCENT_INITIAL_BID_F2, BidOptimizer.PERCENT_INITIAL_BID_SPECIAL, BidModel.START_SETTING_BID_LIMITS_THRESHOLD, BidModel.CAPACITY_PLANNING);
     /**
      * Basic simulation information. {@link StartInfo} contains
      * <ul>
@@ -107,6 +126,18 @@ public class TigerBloodV4 extends Agent {
      * List of all the possible queries made available in the {@link RetailCatalog retail catalog}.
      */
     protected Set<Query> querySpace = new LinkedHashSet<Query>();
+    /**
+     * Dense ordinals for the query space, used to index all per-query model state.
+     */
+    protected QueryIndex queryIndex;
+    /**
+     * Conversion and click probabilities per query, built once the retail catalog and advertiser information are in.
+     */
+    protected ConversionTables conversionTables;
+    /**
+     * The current day's reports, decoded once and shared by all models.
+     */
+    protected DayFrame dayFrame;
     /**
      * Models the game opponents.
      */
@@ -115,43 +146,84 @@ public class TigerBloodV4 extends Agent {
      * Models the this agent relative to the game opponents
      */
     protected BidModel bM;
+    /**
+     * Computes the bids in the background once the day's reports are in.
+     */
+    private BidPipeline bidPipeline = new BidPipeline();
+    /**
+     * Nanoseconds from the simulation status to sending the bids before falling back.
+     */
+    private long bidBudget = TimeUnit.MILLISECONDS.toNanos(BidPipeline.DEFAULT_BUDGET_MILLIS);
+    /**
+     * When the last simulation status arrived, from {@link System#nanoTime()}.
+     */
+    private long statusReceived;
+    /**
+     * The last bids computed in time, sent again if the bids are late.
+     */
+    private BidVector lastGoodBids;
+    /**
+     * Whether the day's query and sales reports are in; the bids are
+     * started once both are, whichever comes last.
+     */
+    private boolean queryReportIn = false, salesReportIn = false;
+    /**
+     * The bidding constants the models use.
+     */
+    private final BidParameters parameters;
+    private final Callable<BidBundle> bidComputation = new Callable<BidBundle>() {
+
+        public BidBundle call() {
+            return bM.getBids().toBidBundle();
+        }
+    };
     /**
      * GUI tools
      */
     private BlankModel blankModel;
     private OpenSequenceGraph surplusGraph, revenueGraph, bidGraph, impressionGraph, conversionGraph, clickGraph, cpcGraph, cpConvGraph, positionGraph, usedCapacityGraph;
     /**
-     * Remmeber the special query.
+     * Whether the graphs are shown and saved this game, see {@link Util#isGraphsEnabled()}.
      */
-    private Query specialQuery;
+    private boolean graphs = true, showGraphs = true;
+
+    public TigerBloodV4() {
+        this(DEFAULT_PARAMETERS);
+    }
+
+    /**
+     * @param parameters the bidding constants to play with instead of this version's own
+     */
+    public TigerBloodV4(BidParameters parameters) {
+        this.parameters = parameters;
+    }
 
     /*
      * Returns the average sales profit over all products
      */
     public double getAverageSalesProfit(String component, String manufacturer) {
-        double t = 0d, c = 0d;
-        for (Product p : retailCatalog.keys()) {
-            if ((component == null || component.equals(p.getComponent())) && (manufacturer == null || manufacturer.equals(p.getManufacturer()))) {
-                t += retailCatalog.getSalesProfit(p);
-                c++;
-            }
-        }
-        return t / c;
+        return QueryIndex.getAverageSalesProfit(retailCatalog, component, manufacturer);
     }
 
     protected Query getSpecializationQuery() {
-        if (specialQuery == null) {
-            for (Query q : querySpace) {
-                try {
-                    if (q.getManufacturer() != null && q.getManufacturer().equals(advertiserInfo.getManufacturerSpecialty()) && q.getComponent() != null && q.getComponent().equals(advertiserInfo.getComponentSpecialty())) {
-                        specialQuery = q;
-                        break;
-                    }
-                } catch (Exception e) {
-                }
-            }
+        if (queryIndex == null || queryIndex.getSpecializationIndex() < 0) {
+            return null;
+        }
+        return queryIndex.get(queryIndex.getSpecializationIndex());
+    }
+
+    /**
+     * Needs the slot and publisher information, which arrive at the start of the game.
+     * @param queryOrdinal the query the auction is for
+     * @return an auction kernel for the query with no opponents loaded
+     */
+    public AuctionKernel newAuctionKernel(int queryOrdinal) {
+        AuctionKernel kernel = new AuctionKernel(slotInfo.getRegularSlots(), slotInfo.getPromotedSlots(), slotInfo.getPromotedSlotBonus(), publisherInfo.getSquashingParameter());
+        kernel.setContinuation(AuctionKernel.getDefaultContinuation(queryIndex.getType(queryOrdinal)));
+        if (advertiserInfo != null) {
+            kernel.setTargetEffect(advertiserInfo.getTargetEffect());
         }
-        return specialQuery;
+        return kernel;
     }
 
     /**
@@ -181,27 +253,96 @@ public class TigerBloodV4 extends Agent {
     }
 
     /**
-     * Sends a constructed {@link BidBundle} from any updated bids, ads, or spend limits.
+     * Sends a constructed {@link BidBundle} from any updated bids, ads, or
+     * spend limits. If they are not ready within the bid budget, or cannot
+     * be computed, the fallback bundle is sent instead so the day is not
+     * missed.
      */
     protected void sendBidAndAds() {
+        BidBundle bidBundle = null;
+        BidVector sent = null;
         try {
-            BidBundle bidBundle = new BidBundle();
-            String publisherAddress = advertiserInfo.getPublisherId();
-            for (Query query : querySpace) {
-                Bid b = bM.getBid(query);
-                bidBundle.addQuery(query, b.bid, b.ad);
-                bidBundle.setDailyLimit(query, b.spendLimit);
+            bidBundle = bidPipeline.commit(bidComputation, statusReceived, bidBudget);
+            if (bidBundle != null) {
+                if (lastGoodBids == null) {
+                    lastGoodBids = new BidVector(queryIndex);
+                }
+                lastGoodBids.copyFrom(bM.getBidVector());
+                sent = lastGoodBids;
+            } else {
+                Util.debug("Bids not ready after " + TimeUnit.NANOSECONDS.toMillis(bidPipeline.getLastLatency()) + " ms, overruns: " + bidPipeline.getOverruns() + "/" + bidPipeline.getCommits());
             }
-            bidBundle.setCampaignDailySpendLimit(bM.getDailySpendLimit());
+        } catch (Exception e) {
+            Util.debug(e);
+        }
+        try {
+            boolean fallback = bidBundle == null;
+            if (fallback) {
+                sent = getFallbackBids();
+                bidBundle = sent.toBidBundle();
+            }
+            // what the next reports are about, even if the computation runs on
+            bM.setSentBids(sent);
+            String publisherAddress = advertiserInfo.getPublisherId();
 
             // Send the bid bundle to the publisher
             if (publisherAddress != null) {
                 sendMessage(publisherAddress, bidBundle);
             }
+            // a late computation may still be moving the bids
+            if (!fallback && graphs) {
+                bidGraph.step();
+            }
         } catch (Exception e) {
             Util.debug(e);
         }
-        bidGraph.step();
+    }
+
+    /**
+     * @return the last bids computed in time, or if there are none yet a
+     * fixed share of each query's average profit
+     */
+    protected BidVector getFallbackBids() {
+        if (lastGoodBids != null) {
+            return lastGoodBids;
+        }
+        BidVector bids = new BidVector(queryIndex);
+        for (int i = 0; i < queryIndex.size(); i++) {
+            if (queryIndex.getType(i) != QueryType.FOCUS_LEVEL_ZERO) {
+                bids.setBid(i, Util.round3(queryIndex.getAverageProfit(i) * parameters.getInitialBidF1()));
+            }
+        }
+        return bids;
+    }
+
+    /**
+     * @return the conversion and click probabilities, or null until both the
+     * retail catalog and the advertiser information are in
+     */
+    public ConversionTables getConversionTables() {
+        return conversionTables;
+    }
+
+    /**
+     * @return the number of days in the game
+     */
+    public int getNumberOfDays() {
+        if (startInfo == null) {
+            return DEFAULT_NUMBER_OF_DAYS;
+        }
+        return startInfo.getNumberOfDays();
+    }
+
+    public BidParameters getParameters() {
+        return parameters;
+    }
+
+    public BidPipeline getBidPipeline() {
+        return bidPipeline;
+    }
+
+    public void setBidBudget(long millis) {
+        bidBudget = TimeUnit.MILLISECONDS.toNanos(millis);
     }
 
     /**
@@ -210,13 +351,20 @@ public class TigerBloodV4 extends Agent {
      * @param queryReport the daily query report.
      */
     protected void handleQueryReport(QueryReport queryReport) {
+        // yesterday's bids may still be computing if they ran late
+        bidPipeline.await();
         queryReports.add(queryReport);
-        gM.handleQueryReport(queryReport);
-        bM.handleQueryReport(queryReport);
-        impressionGraph.step();
-        clickGraph.step();
-        cpcGraph.step();
-        positionGraph.step();
+        dayFrame.decode(queryReport);
+        gM.handleQueryReport(dayFrame);
+        bM.handleQueryReport(dayFrame);
+        if (graphs) {
+            impressionGraph.step();
+            clickGraph.step();
+            cpcGraph.step();
+            positionGraph.step();
+        }
+        queryReportIn = true;
+        startBids();
     }
 
     /**
@@ -225,13 +373,34 @@ public class TigerBloodV4 extends Agent {
      * @param salesReport the daily sales report.
      */
     protected void handleSalesReport(SalesReport salesReport) {
+        // yesterday's bids may still be computing if they ran late
+        bidPipeline.await();
         salesReports.add(salesReport);
-        bM.handleSalesReport(salesReport);
-        revenueGraph.step();
-        conversionGraph.step();
-        surplusGraph.step();
-        cpConvGraph.step();
-        usedCapacityGraph.step();
+        dayFrame.decode(salesReport);
+        gM.handleSalesReport(dayFrame);
+        bM.handleSalesReport(dayFrame);
+        if (graphs) {
+            revenueGraph.step();
+            conversionGraph.step();
+            surplusGraph.step();
+            cpConvGraph.step();
+            usedCapacityGraph.step();
+        }
+        salesReportIn = true;
+        startBids();
+    }
+
+    /**
+     * Starts on the bids in the background once both of the day's reports
+     * are in, since every input to the bids is in then, so they are ready
+     * before the simulation status asks for them.
+     */
+    private void startBids() {
+        if (queryReportIn && salesReportIn) {
+            queryReportIn = false;
+            salesReportIn = false;
+            bidPipeline.start(bidComputation);
+        }
     }
 
     /**
@@ -241,6 +410,10 @@ public class TigerBloodV4 extends Agent {
      * @param simulationStatus the daily simulation status.
      */
     protected void handleSimulationStatus(SimulationStatus simulationStatus) {
+        statusReceived = System.nanoTime();
+        // the day's messages are over, so a report missing today does not carry over
+        queryReportIn = false;
+        salesReportIn = false;
         sendBidAndAds();
     }
 
@@ -281,117 +454,125 @@ public class TigerBloodV4 extends Agent {
             // The F2 query class
             querySpace.add(new Query(product.getManufacturer(), product.getComponent()));
         }
+        queryIndex = new QueryIndex(querySpace, retailCatalog);
+        dayFrame = new DayFrame(queryIndex);
+        if (advertiserInfo != null) {
+            queryIndex.setSpecialty(advertiserInfo);
+            conversionTables = new ConversionTables(queryIndex, retailCatalog, advertiserInfo);
+        }
 
-        // set up the queries
-        for (final Query q : querySpace) {
-            surplusGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getProfit(0);
-                    } catch (Exception e) {
-                        return 0;
+        if (graphs) {
+            // set up the queries
+            for (final Query q : querySpace) {
+                surplusGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getProfit(0);
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            revenueGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    return bM.getBidder(q).getRevenue();
-                }
-            });
-            bidGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+                });
+                revenueGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
 
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).bid.bid;
-                    } catch (Exception e) {
-                        return 0;
+                    public double getSValue() {
+                        return bM.getBidder(q).getRevenue();
                     }
-                }
-            });
-            impressionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return gM.uM.getImpressions(q).getFirst();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                bidGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getBid();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            clickGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getClicks();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                impressionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return gM.uM.getImpressions(q).getFirst();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            conversionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getConversions();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                clickGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getClicks();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            cpcGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getCPC();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                conversionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getConversions();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            cpConvGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
-
-                public double getSValue() {
-                    try {
-                        return bM.getBidder(q).getCPConv();
-                    } catch (Exception e) {
-                        return 0;
+                });
+                cpcGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getCPC();
+                        } catch (Exception e) {
+                            return 0;
+                        }
                     }
-                }
-            });
-            positionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+                });
+                cpConvGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getCPConv();
+                        } catch (Exception e) {
+                            return 0;
+                        }
+                    }
+                });
+                positionGraph.addSequence(q.getComponent() + ", " + q.getManufacturer(), new Sequence() {
+
+                    public double getSValue() {
+                        try {
+                            return bM.getBidder(q).getPosition();
+                        } catch (Exception e) {
+                            return 0;
+                        }
+                    }
+                });
+            }
+            usedCapacityGraph.addSequence("Used Capacity", new Sequence() {
 
                 public double getSValue() {
                     try {
-                        return bM.getBidder(q).getPosition();
+                        return bM.getUsedCapacity();
                     } catch (Exception e) {
                         return 0;
                     }
                 }
             });
+            surplusGraph.display();
+            revenueGraph.display();
+            bidGraph.display();
+            impressionGraph.display();
+            clickGraph.display();
+            conversionGraph.display();
+            cpcGraph.display();
+            cpConvGraph.display();
+            positionGraph.display();
+            usedCapacityGraph.display();
+            blankModel.run();
         }
-        usedCapacityGraph.addSequence("Used Capacity", new Sequence() {
-
-            public double getSValue() {
-                try {
-                    return bM.getUsedCapacity();
-                } catch (Exception e) {
-                    return 0;
-                }
-            }
-        });
-        surplusGraph.display();
-        revenueGraph.display();
-        bidGraph.display();
-        impressionGraph.display();
-        clickGraph.display();
-        conversionGraph.display();
-        cpcGraph.display();
-        cpConvGraph.display();
-        positionGraph.display();
-        usedCapacityGraph.display();
-        blankModel.run();
     }
 
     /**
@@ -400,6 +581,10 @@ public class TigerBloodV4 extends Agent {
      */
     protected void handleAdvertiserInfo(AdvertiserInfo advertiserInfo) {
         this.advertiserInfo = advertiserInfo;
+        if (queryIndex != null) {
+            queryIndex.setSpecialty(advertiserInfo);
+            conversionTables = new ConversionTables(queryIndex, retailCatalog, advertiserInfo);
+        }
         Util.debug("Capacity: " + advertiserInfo.getDistributionCapacity() + ", Distribution Window: " + advertiserInfo.getDistributionWindow() + ", Distribution Capacity Discounter: " + advertiserInfo.getDistributionCapacityDiscounter());
     }
 
@@ -411,170 +596,185 @@ public class TigerBloodV4 extends Agent {
         this.startInfo = startInfo;
     }
 
+    public void setGraphs(boolean graphs) {
+        showGraphs = graphs;
+    }
+
     /**
      * Prepares the agent for a new simulation.
      */
     protected void simulationSetup() {
         gM = new GameModel(this);
         bM = new BidModel(this);
-        blankModel = new BlankModel();
+        graphs = showGraphs && Util.isGraphsEnabled();
+        if (graphs) {
+            blankModel = new BlankModel();
 
-        if (surplusGraph != null) {
-            surplusGraph.dispose();
-            surplusGraph = null;
+            if (surplusGraph != null) {
+                surplusGraph.dispose();
+                surplusGraph = null;
+            }
+            surplusGraph = new OpenSequenceGraph(NAME + " Surplus", blankModel);
+            surplusGraph.setXRange(0, 60);
+            surplusGraph.setYRange(0, 1000);
+            surplusGraph.setYIncrement(100);
+            surplusGraph.setAxisTitles("Time", "$");
+
+            if (revenueGraph != null) {
+                revenueGraph.dispose();
+            }
+            revenueGraph = new OpenSequenceGraph(NAME + " Revenue", blankModel);
+            revenueGraph.setXRange(0, 60);
+            revenueGraph.setYRange(0, 1000);
+            revenueGraph.setYIncrement(100);
+            revenueGraph.setAxisTitles("Time", "$");
+
+            if (bidGraph != null) {
+                bidGraph.dispose();
+            }
+            bidGraph = new OpenSequenceGraph(NAME + " Bids", blankModel);
+            bidGraph.setXRange(0, 60);
+            bidGraph.setYRange(0, 2);
+            bidGraph.setYIncrement(0.2);
+            bidGraph.setAxisTitles("Time", "$");
+
+            if (impressionGraph != null) {
+                impressionGraph.dispose();
+            }
+            impressionGraph = new OpenSequenceGraph(NAME + " Impressions", blankModel);
+            impressionGraph.setXRange(0, 60);
+            impressionGraph.setYRange(0, 500);
+            impressionGraph.setYIncrement(50);
+            impressionGraph.setAxisTitles("Time", "Impressions");
+
+            if (clickGraph != null) {
+                clickGraph.dispose();
+            }
+            clickGraph = new OpenSequenceGraph(NAME + " Clicks", blankModel);
+            clickGraph.setXRange(0, 60);
+            clickGraph.setYRange(0, 200);
+            clickGraph.setYIncrement(20);
+            clickGraph.setAxisTitles("Time", "Clicks");
+
+            if (conversionGraph != null) {
+                conversionGraph.dispose();
+            }
+            conversionGraph = new OpenSequenceGraph(NAME + " Conversions", blankModel);
+            conversionGraph.setXRange(0, 60);
+            conversionGraph.setYRange(0, 100);
+            conversionGraph.setYIncrement(10);
+            conversionGraph.setAxisTitles("Time", "Conversions");
+
+            if (cpcGraph != null) {
+                cpcGraph.dispose();
+            }
+            cpcGraph = new OpenSequenceGraph(NAME + " Cost Per Click", blankModel);
+            cpcGraph.setXRange(0, 60);
+            cpcGraph.setYRange(0, 2);
+            cpcGraph.setYIncrement(0.2);
+            cpcGraph.setAxisTitles("Time", "$");
+
+            if (cpConvGraph != null) {
+                cpConvGraph.dispose();
+            }
+            cpConvGraph = new OpenSequenceGraph(NAME + " Cost Per Conversion", blankModel);
+            cpConvGraph.setXRange(0, 60);
+            cpConvGraph.setYRange(0, 10);
+            cpConvGraph.setYIncrement(1);
+            cpConvGraph.setAxisTitles("Time", "$");
+
+            if (positionGraph != null) {
+                positionGraph.dispose();
+            }
+            positionGraph = new OpenSequenceGraph(NAME + " Position", blankModel);
+            positionGraph.setXRange(0, 60);
+            positionGraph.setYRange(0, 8);
+            positionGraph.setYIncrement(1);
+            positionGraph.setAxisTitles("Time", "Position");
+
+            if (usedCapacityGraph != null) {
+                usedCapacityGraph.dispose();
+            }
+            usedCapacityGraph = new OpenSequenceGraph(NAME + " Used Capacity", blankModel);
+            usedCapacityGraph.setXRange(0, 60);
+            usedCapacityGraph.setYRange(0, 600);
+            usedCapacityGraph.setYIncrement(50);
+            usedCapacityGraph.setAxisTitles("Time", "Units");
         }
-        surplusGraph = new OpenSequenceGraph(NAME + " Surplus", blankModel);
-        surplusGraph.setXRange(0, 60);
-        surplusGraph.setYRange(0, 1000);
-        surplusGraph.setYIncrement(100);
-        surplusGraph.setAxisTitles("Time", "$");
+    }
 
-        if (revenueGraph != null) {
+    /**
+     * Runs any post-processes required for the agent after a simulation ends.
+     */
+    protected void simulationFinished() {
+        bidPipeline.shutdown();
+        bM.shutdown();
+        salesReports.clear();
+        queryReports.clear();
+        querySpace.clear();
+        queryIndex = null;
+        conversionTables = null;
+        lastGoodBids = null;
+        dayFrame = null;
+        if (graphs) {
+            // set graph file names
+            surplusGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_surplus");
+            revenueGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_revenue");
+            bidGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_bid");
+            impressionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_impression");
+            conversionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_conversion");
+            clickGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_click");
+            cpcGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpc");
+            cpConvGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpConv");
+            positionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_position");
+            usedCapacityGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_usedCapacity");
+            // save the graphs
+            surplusGraph.takeSnapshot();
+            revenueGraph.takeSnapshot();
+            bidGraph.takeSnapshot();
+            impressionGraph.takeSnapshot();
+            conversionGraph.takeSnapshot();
+            clickGraph.takeSnapshot();
+            cpcGraph.takeSnapshot();
+            cpConvGraph.takeSnapshot();
+            positionGraph.takeSnapshot();
+            usedCapacityGraph.takeSnapshot();
+            // close it
+            surplusGraph.closeMovie();
+            revenueGraph.closeMovie();
+            bidGraph.closeMovie();
+            impressionGraph.closeMovie();
+            conversionGraph.closeMovie();
+            clickGraph.closeMovie();
+            cpcGraph.closeMovie();
+            cpConvGraph.closeMovie();
+            positionGraph.closeMovie();
+            usedCapacityGraph.closeMovie();
+            // dispose of the graphs
+            surplusGraph.dispose();
             revenueGraph.dispose();
-        }
-        revenueGraph = new OpenSequenceGraph(NAME + " Revenue", blankModel);
-        revenueGraph.setXRange(0, 60);
-        revenueGraph.setYRange(0, 1000);
-        revenueGraph.setYIncrement(100);
-        revenueGraph.setAxisTitles("Time", "$");
-
-        if (bidGraph != null) {
             bidGraph.dispose();
-        }
-        bidGraph = new OpenSequenceGraph(NAME + " Bids", blankModel);
-        bidGraph.setXRange(0, 60);
-        bidGraph.setYRange(0, 2);
-        bidGraph.setYIncrement(0.2);
-        bidGraph.setAxisTitles("Time", "$");
-
-        if (impressionGraph != null) {
             impressionGraph.dispose();
-        }
-        impressionGraph = new OpenSequenceGraph(NAME + " Impressions", blankModel);
-        impressionGraph.setXRange(0, 60);
-        impressionGraph.setYRange(0, 500);
-        impressionGraph.setYIncrement(50);
-        impressionGraph.setAxisTitles("Time", "Impressions");
-
-        if (clickGraph != null) {
-            clickGraph.dispose();
-        }
-        clickGraph = new OpenSequenceGraph(NAME + " Clicks", blankModel);
-        clickGraph.setXRange(0, 60);
-        clickGraph.setYRange(0, 200);
-        clickGraph.setYIncrement(20);
-        clickGraph.setAxisTitles("Time", "Clicks");
-
-        if (conversionGraph != null) {
             conversionGraph.dispose();
-        }
-        conversionGraph = new OpenSequenceGraph(NAME + " Conversions", blankModel);
-        conversionGraph.setXRange(0, 60);
-        conversionGraph.setYRange(0, 100);
-        conversionGraph.setYIncrement(10);
-        conversionGraph.setAxisTitles("Time", "Conversions");
-
-        if (cpcGraph != null) {
+            clickGraph.dispose();
             cpcGraph.dispose();
-        }
-        cpcGraph = new OpenSequenceGraph(NAME + " Cost Per Click", blankModel);
-        cpcGraph.setXRange(0, 60);
-        cpcGraph.setYRange(0, 2);
-        cpcGraph.setYIncrement(0.2);
-        cpcGraph.setAxisTitles("Time", "$");
-
-        if (cpConvGraph != null) {
             cpConvGraph.dispose();
-        }
-        cpConvGraph = new OpenSequenceGraph(NAME + " Cost Per Conversion", blankModel);
-        cpConvGraph.setXRange(0, 60);
-        cpConvGraph.setYRange(0, 10);
-        cpConvGraph.setYIncrement(1);
-        cpConvGraph.setAxisTitles("Time", "$");
-
-        if (positionGraph != null) {
             positionGraph.dispose();
-        }
-        positionGraph = new OpenSequenceGraph(NAME + " Position", blankModel);
-        positionGraph.setXRange(0, 60);
-        positionGraph.setYRange(0, 8);
-        positionGraph.setYIncrement(1);
-        positionGraph.setAxisTitles("Time", "Position");
-
-        if (usedCapacityGraph != null) {
             usedCapacityGraph.dispose();
+            // set graphs to null
+            surplusGraph = null;
+            revenueGraph = null;
+            bidGraph = null;
+            impressionGraph = null;
+            conversionGraph = null;
+            clickGraph = null;
+            cpcGraph = null;
+            cpConvGraph = null;
+            positionGraph = null;
+            usedCapacityGraph = null;
+            // stop the model
+            blankModel.stop();
         }
-        usedCapacityGraph = new OpenSequenceGraph(NAME + " Used Capacity", blankModel);
-        usedCapacityGraph.setXRange(0, 60);
-        usedCapacityGraph.setYRange(0, 600);
-        usedCapacityGraph.setYIncrement(50);
-        usedCapacityGraph.setAxisTitles("Time", "Units");
-    }
-
-    /**
-     * Runs any post-processes required for the agent after a simulation ends.
-     */
-    protected void simulationFinished() {
-        salesReports.clear();
-        queryReports.clear();
-        querySpace.clear();
-        // set graph file names
-        surplusGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_surplus");
-        revenueGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_revenue");
-        bidGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_bid");
-        impressionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_impression");
-        conversionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_conversion");
-        clickGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_click");
-        cpcGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpc");
-        cpConvGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_cpConv");
-        positionGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_position");
-        usedCapacityGraph.setSnapshotFileName("../tac-aa-11/game-graphs/" + startInfo.getSimulationID() + "_" + NAME + "_usedCapacity");
-        // save the graphs
-        surplusGraph.takeSnapshot();
-        revenueGraph.takeSnapshot();
-        bidGraph.takeSnapshot();
-        impressionGraph.takeSnapshot();
-        conversionGraph.takeSnapshot();
-        clickGraph.takeSnapshot();
-        cpcGraph.takeSnapshot();
-        cpConvGraph.takeSnapshot();
-        positionGraph.takeSnapshot();
-        usedCapacityGraph.takeSnapshot();
-        // close it
-        surplusGraph.closeMovie();
-        revenueGraph.closeMovie();
-        bidGraph.closeMovie();
-        impressionGraph.closeMovie();
-        conversionGraph.closeMovie();
-        clickGraph.closeMovie();
-        cpcGraph.closeMovie();
-        cpConvGraph.closeMovie();
-        positionGraph.closeMovie();
-        usedCapacityGraph.closeMovie();
-        // dispose of the graphs
-        surplusGraph.dispose();
-        revenueGraph.dispose();
-        bidGraph.dispose();
-        impressionGraph.dispose();
-        conversionGraph.dispose();
-        clickGraph.dispose();
-        cpcGraph.dispose();
-        cpConvGraph.dispose();
-        positionGraph.dispose();
-        usedCapacityGraph.dispose();
-        // set graphs to null
-        surplusGraph = null;
-        revenueGraph = null;
-        bidGraph = null;
-        impressionGraph = null;
-        conversionGraph = null;
-        clickGraph = null;
-        cpcGraph = null;
-        cpConvGraph = null;
-        positionGraph = null;
-        usedCapacityGraph = null;
-        // stop the model
-        blankModel.stop();
         blankModel = null;
         // force gc
         System.gc();
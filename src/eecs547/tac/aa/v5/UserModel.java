@@ -1,10 +1,10 @@
 package eecs547.tac.aa.v5;
 
+import eecs547.tac.aa.DayFrame;
+import eecs547.tac.aa.ImpressionForecaster;
+import eecs547.tac.aa.IntTimeSeries;
+import eecs547.tac.aa.UserParticleFilter;
 import edu.umich.eecs.tac.props.Query;
-import edu.umich.eecs.tac.props.QueryReport;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
 
 /**
  *
@@ -12,37 +12,84 @@ import java.util.Map;
  */
 public class UserModel {
 
+    /**
+     * With the level following the last day and no trend the forecast is
+     * yesterday's impressions, which is what the bidder was tuned against.
+     */
+    public static final double LEVEL_SMOOTHING = 1d, TREND_SMOOTHING = 0d;
     private GameModel gM;
-    private Map<Query, LinkedList<Integer>> impressions = new HashMap<Query, LinkedList<Integer>>();
+    private IntTimeSeries[] impressions;
+    private ImpressionForecaster forecaster;
+    private UserParticleFilter particleFilter;
 
     public UserModel(GameModel gM) {
         this.gM = gM;
     }
 
-    public LinkedList<Integer> getImpressions(Query q) {
-        if (!impressions.containsKey(q)) {
-            impressions.put(q, new LinkedList<Integer>());
+    public IntTimeSeries getImpressions(Query q) {
+        return getImpressions(gM.agent.queryIndex.indexOf(q));
+    }
+
+    public IntTimeSeries getImpressions(int queryOrdinal) {
+        if (impressions == null) {
+            impressions = new IntTimeSeries[gM.agent.queryIndex.size()];
+        }
+        if (impressions[queryOrdinal] == null) {
+            impressions[queryOrdinal] = new IntTimeSeries();
+        }
+        return impressions[queryOrdinal];
+    }
+
+    public ImpressionForecaster getForecaster() {
+        if (forecaster == null) {
+            forecaster = new ImpressionForecaster(gM.agent.queryIndex.size(), LEVEL_SMOOTHING, TREND_SMOOTHING);
+        }
+        return forecaster;
+    }
+
+    public UserParticleFilter getParticleFilter() {
+        if (particleFilter == null) {
+            particleFilter = new UserParticleFilter(gM.agent.queryIndex);
+            particleFilter.setExecutor(gM.agent.bM.getExecutor());
         }
-        return impressions.get(q);
+        return particleFilter;
     }
 
-    public void handleQueryReport(QueryReport queryReport) {
-        for (Query q : gM.agent.querySpace) {
-            getImpressions(q).addFirst(queryReport.getImpressions(q));
+    public void handleQueryReport(DayFrame frame) {
+        ImpressionForecaster f = getForecaster();
+        for (int i = 0; i < gM.agent.queryIndex.size(); i++) {
+            getImpressions(i).addFirst(frame.getImpressions(i));
+            f.observe(i, frame.getImpressions(i));
         }
+        f.commit();
+    }
+
+    /**
+     * The day's frame must hold both reports.
+     */
+    public void handleSalesReport(DayFrame frame) {
+        getParticleFilter().handleReports(frame);
+    }
+
+    /**
+     * Our impressions count the searches while the ad is shown; once it is
+     * not, they say nothing, and the user population's searches stand in.
+     * @return the searches of the query expected today
+     */
+    public double predictSearches(int queryOrdinal) {
+        int forecast = predictImpressions(queryOrdinal);
+        return forecast > 0 ? forecast : getParticleFilter().predictSearches(queryOrdinal);
     }
 
     public int predictImpressions(Query q) {
-        return impressions.get(q).getFirst();
+        return predictImpressions(gM.agent.queryIndex.indexOf(q));
+    }
+
+    public int predictImpressions(int queryOrdinal) {
+        return getForecaster().getForecast(queryOrdinal);
     }
 
     public int predictTotalImpressions() {
-        int t = 0;
-        for (Query q : impressions.keySet()) {
-            if (!impressions.get(q).isEmpty()) {
-                t += impressions.get(q).getFirst();
-            }
-        }
-        return t;
+        return getForecaster().getTotalForecast();
     }
 }